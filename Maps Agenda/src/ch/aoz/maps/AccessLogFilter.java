@@ -0,0 +1,132 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Logs one compact line per data request, to capture the real traffic mix
+ * and replay it with tools/AccessLogReplay. A line is
+ *
+ *   access TAB time TAB method TAB path TAB type TAB lang TAB date TAB back
+ *       TAB ms TAB status TAB cursor TAB size TAB from TAB to
+ *
+ * with time in epoch milliseconds, date the date or month parameter, back 1
+ * or 0, cursor the one of EventPages, from and to the months of the calendar,
+ * and - for missing values. Only those parameters are kept, and only if they
+ * have the expected shape: no emails, hashes or free text end up in the logs.
+ *
+ * Lines go to java.util.logging at INFO, i.e. to the App Engine request logs.
+ * Disabled with the system property accesslog.enabled=false.
+ */
+public class AccessLogFilter implements Filter {
+  private static final Logger logger =
+      Logger.getLogger(AccessLogFilter.class.getName());
+
+  public static final String PREFIX = "access";
+
+  private static final Pattern TYPE = Pattern.compile("[a-z_]{1,32}");
+  private static final Pattern LANG = Pattern.compile("[a-z]{2}");
+  private static final Pattern DATE =
+      Pattern.compile("\\d{4}-\\d{1,2}(-\\d{1,2})?");
+  private static final Pattern MONTH = Pattern.compile("\\d{4}-\\d{1,2}");
+  /** Day and key in base 36, and the direction, see EventPages.Position. */
+  private static final Pattern CURSOR =
+      Pattern.compile("[0-9a-z]{1,13}\\.-?[0-9a-z]{1,13}[fb]");
+  private static final Pattern SIZE = Pattern.compile("\\d{1,3}");
+
+  private boolean enabled;
+
+  @Override
+  public void init(FilterConfig config) {
+    enabled = !"false".equals(System.getProperty("accesslog.enabled"));
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse resp,
+      FilterChain chain) throws IOException, ServletException {
+    if (!enabled || !(req instanceof HttpServletRequest)) {
+      chain.doFilter(req, resp);
+      return;
+    }
+    HttpServletRequest request = (HttpServletRequest) req;
+    StatusResponse response = new StatusResponse((HttpServletResponse) resp);
+    long start = System.nanoTime();
+    try {
+      chain.doFilter(request, response);
+    } catch (IOException | ServletException | RuntimeException e) {
+      response.status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+      throw e;
+    } finally {
+      long ms = (System.nanoTime() - start) / 1000000;
+      String date = request.getParameter("date");
+      if (date == null) {
+        date = request.getParameter("month");
+      }
+      StringBuilder line = new StringBuilder(128);
+      line.append(PREFIX)
+          .append('\t').append(System.currentTimeMillis())
+          .append('\t').append(request.getMethod())
+          .append('\t').append(request.getServletPath())
+          .append('\t').append(sanitize(request.getParameter("type"), TYPE))
+          .append('\t').append(sanitize(request.getParameter("lang"), LANG))
+          .append('\t').append(sanitize(date, DATE))
+          .append('\t').append(request.getParameter("back") == null ? '0' : '1')
+          .append('\t').append(ms)
+          .append('\t').append(response.status)
+          .append('\t').append(sanitize(request.getParameter("cursor"), CURSOR))
+          .append('\t').append(sanitize(request.getParameter("size"), SIZE))
+          .append('\t').append(sanitize(request.getParameter("from"), MONTH))
+          .append('\t').append(sanitize(request.getParameter("to"), MONTH));
+      logger.info(line.toString());
+    }
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+  private static String sanitize(String value, Pattern shape) {
+    if (value == null || !shape.matcher(value).matches()) {
+      return "-";
+    }
+    return value;
+  }
+
+  /** Remembers the status, which Servlet 2.5 responses don't expose. */
+  private static class StatusResponse extends HttpServletResponseWrapper {
+    int status = HttpServletResponse.SC_OK;
+
+    StatusResponse(HttpServletResponse response) {
+      super(response);
+    }
+
+    @Override
+    public void setStatus(int status) {
+      this.status = status;
+      super.setStatus(status);
+    }
+
+    @Override
+    public void sendError(int status) throws IOException {
+      this.status = status;
+      super.sendError(status);
+    }
+
+    @Override
+    public void sendError(int status, String message) throws IOException {
+      this.status = status;
+      super.sendError(status, message);
+    }
+  }
+}
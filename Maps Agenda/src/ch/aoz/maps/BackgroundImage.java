@@ -42,12 +42,13 @@ public class BackgroundImage implements java.io.Serializable {
    */
   public static BackgroundImage fetchFromStore() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    if (syncCache.contains(getMemcacheKey())) {
-      return (BackgroundImage)syncCache.get(getMemcacheKey());
+    Object cached = Storage.cacheGet(syncCache, entityKind, getMemcacheKey());
+    if (cached != null) {
+      return (BackgroundImage) cached;
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      Entity e = datastore.get(KeyFactory.createKey(entityKind, getDatastoreKey()));
+      Entity e = Storage.get(datastore, KeyFactory.createKey(entityKind, getDatastoreKey()));
       return fromEntity(e);
     } catch (EntityNotFoundException e) {
       return new BackgroundImage();
@@ -62,7 +63,7 @@ public class BackgroundImage implements java.io.Serializable {
   public boolean addToStore() {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      datastore.put(this.toEntity());
+      Storage.put(datastore, this.toEntity());
     } catch (Exception ex) {
       ex.printStackTrace();
       debug = "exception (datastore null? " + (datastore == null) + "): " + ex.toString();
@@ -99,7 +100,7 @@ public class BackgroundImage implements java.io.Serializable {
 
   private void addToCache() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    syncCache.put(getMemcacheKey(), this);    
+    Storage.cachePut(syncCache, getMemcacheKey(), this);    
   }
   
   /** Only setters and getters below. */  
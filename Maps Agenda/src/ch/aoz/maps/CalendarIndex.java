@@ -0,0 +1,311 @@
+package ch.aoz.maps;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * The day of every event of a month, and the languages it has a description
+ * in. Gives the number of events and translations per day without loading
+ * the Events and EventDescriptions of the month, for the date picker and the
+ * month navigation.
+ *
+ * Updated when Events and EventDescriptions are stored, in a transaction so
+ * that concurrent updates of a month aren't lost. The index of a month
+ * stored before it existed is built once from them, and stored even if the
+ * month has no events.
+ */
+public class CalendarIndex implements java.io.Serializable {
+  private static final Logger logger =
+      Logger.getLogger(CalendarIndex.class.getName());
+
+  private static final long serialVersionUID = 161735L;
+  public static final String entityKind = "CalendarIndex";
+  public static final char RS = 0x1e;  // Record separator.
+  /** Attempts of an update that collides with another one. */
+  private static final int MAX_ATTEMPTS = 3;
+
+  /** Month in which all the events take place */
+  private Calendar month;
+  /** Day of each event, by key */
+  private Map<Long, Integer> days;
+  /** Languages each event has a description in, by key */
+  private Map<Long, Set<String>> langs;
+
+  private CalendarIndex(Calendar c) {
+    month = Calendar.getInstance();
+    month.clear();
+    month.set(Calendar.YEAR, c.get(Calendar.YEAR));
+    month.set(Calendar.MONTH, c.get(Calendar.MONTH));
+    month.set(Calendar.DATE, 1);
+    days = new TreeMap<Long, Integer>();
+    langs = new HashMap<Long, Set<String>>();
+  }
+
+  private CalendarIndex(Calendar c, Entity entity) {
+    this(c);
+    for (String keyStr : entity.getProperties().keySet()) {
+      String[] fields = ((String) entity.getProperty(keyStr)).split("" + RS);
+      long key;
+      try {
+        key = Long.parseLong(keyStr);
+        days.put(key, Integer.parseInt(fields[0]));
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      Set<String> l = new TreeSet<String>();
+      for (int i = 1; i < fields.length; ++i) {
+        l.add(fields[i]);
+      }
+      langs.put(key, l);
+    }
+  }
+
+  private static String getKey(Calendar c) {
+    return String.format("%04d-%02d", c.get(Calendar.YEAR), c.get(Calendar.MONTH));
+  }
+  private static String getMemcacheKey(Calendar c) {
+    return String.format("%s-%s", entityKind, getKey(c));
+  }
+
+  /** Returns the index of the month specified in the calendar. */
+  public static CalendarIndex getIndex(Calendar c) {
+    return getIndexes(c, c).get(0);
+  }
+
+  /**
+   * Returns the indexes of the months from the one of 'from' to the one of
+   * 'to', included. Memcache and the datastore are each queried once for
+   * the whole range.
+   */
+  public static List<CalendarIndex> getIndexes(Calendar from, Calendar to) {
+    List<Calendar> months = new ArrayList<Calendar>();
+    Calendar c = new CalendarIndex(from).month;
+    while (!c.after(to)) {
+      months.add((Calendar) c.clone());
+      c.add(Calendar.MONTH, 1);
+    }
+
+    List<String> memcacheKeys = new ArrayList<String>();
+    for (Calendar m : months) {
+      memcacheKeys.add(getMemcacheKey(m));
+    }
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    Map<String, Object> cached =
+        Storage.cacheGetAll(syncCache, entityKind, memcacheKeys);
+
+    List<Key> missing = new ArrayList<Key>();
+    for (Calendar m : months) {
+      if (cached.get(getMemcacheKey(m)) == null) {
+        missing.add(KeyFactory.createKey(entityKind, getKey(m)));
+      }
+    }
+    Map<Key, Entity> entities = new HashMap<Key, Entity>();
+    if (!missing.isEmpty()) {
+      DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+      entities = Storage.get(datastore, entityKind, missing);
+    }
+
+    List<CalendarIndex> result = new ArrayList<CalendarIndex>();
+    for (Calendar m : months) {
+      Object o = cached.get(getMemcacheKey(m));
+      if (o != null) {
+        result.add((CalendarIndex) o);
+        continue;
+      }
+      Entity e = entities.get(KeyFactory.createKey(entityKind, getKey(m)));
+      if (e != null) {
+        CalendarIndex index = new CalendarIndex(m, e);
+        index.addToCache();
+        result.add(index);
+        continue;
+      }
+      // Stored before there was an index.
+      CalendarIndex built = build(m);
+      CalendarIndex index = update(m, built, null, null);
+      if (index == null) {
+        built.addToCache();
+        index = built;
+      }
+      result.add(index);
+    }
+    return result;
+  }
+
+  /** Builds the index of a month from its events and descriptions. */
+  private static CalendarIndex build(Calendar c) {
+    CalendarIndex index = new CalendarIndex(c);
+    index.setEvents(Events.getEvents(index.month));
+    Set<String> codes = Language.getAllLanguagesAsMap().keySet();
+    for (EventDescriptions d :
+        EventDescriptions.getDescriptions(codes, index.month).values()) {
+      index.setDescriptions(d);
+    }
+    return index;
+  }
+
+  /** Updates the index with the events of their month. */
+  public static boolean update(Events events) {
+    return update(events.getCalendar(), null, events, null) != null;
+  }
+
+  /** Updates the index with the descriptions of their month and language. */
+  public static boolean update(EventDescriptions descriptions) {
+    return update(descriptions.getMonth(), null, null, descriptions) != null;
+  }
+
+  /**
+   * Reads the index of the month, updates it and stores it in a transaction,
+   * tried again if another update of the month committed in between. The
+   * index of a month that has none yet is built first, outside of the
+   * transaction: it may only use the entity group of the index. Memcache is
+   * only updated once the transaction committed.
+   *
+   * @param built the index built from the events and descriptions of the
+   *        month, or null to build it if needed.
+   * @param events null to keep the events of the index.
+   * @param descriptions null to keep the descriptions of the index.
+   * @return the stored index, or null if this operation failed.
+   */
+  private static CalendarIndex update(Calendar c, CalendarIndex built,
+      Events events, EventDescriptions descriptions) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Key key = KeyFactory.createKey(entityKind, getKey(c));
+    int attempt = 1;
+    while (true) {
+      Transaction txn = datastore.beginTransaction();
+      try {
+        CalendarIndex index;
+        try {
+          index = new CalendarIndex(c, Storage.get(datastore, txn, key));
+        } catch (EntityNotFoundException e) {
+          index = built;
+        }
+        if (index == null) {
+          txn.rollback();
+          built = build(c);
+          continue;
+        }
+        if (events != null) {
+          index.setEvents(events);
+        }
+        if (descriptions != null) {
+          index.setDescriptions(descriptions);
+        }
+        Storage.put(datastore, txn, index.toEntity());
+        txn.commit();
+        index.addToCache();
+        return index;
+      } catch (ConcurrentModificationException e) {
+        // Another update of the month committed first, start over from it.
+        if (attempt++ == MAX_ATTEMPTS) {
+          logger.warning("Gave up storing the calendar index of " + getKey(c)
+              + " after " + MAX_ATTEMPTS + " collisions");
+          return null;
+        }
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING,
+            "Failed to store the calendar index of " + getKey(c), e);
+        return null;
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+  }
+
+  private void setEvents(Events events) {
+    Map<Long, Integer> days = new TreeMap<Long, Integer>();
+    for (Event e : events.getSortedEvents()) {
+      days.put(e.getKey(), e.getCalendar().get(Calendar.DATE));
+      if (!langs.containsKey(e.getKey())) {
+        langs.put(e.getKey(), new TreeSet<String>());
+      }
+    }
+    this.days = days;
+    langs.keySet().retainAll(days.keySet());
+  }
+
+  private void setDescriptions(EventDescriptions descriptions) {
+    for (Map.Entry<Long, Set<String>> entry : langs.entrySet()) {
+      if (descriptions.getDescription(entry.getKey()) != null) {
+        entry.getValue().add(descriptions.getLang());
+      } else {
+        entry.getValue().remove(descriptions.getLang());
+      }
+    }
+  }
+
+  private Entity toEntity() {
+    Entity index = new Entity(entityKind, getKey(this.month));
+    for (Map.Entry<Long, Integer> entry : days.entrySet()) {
+      StringBuilder s = new StringBuilder().append(entry.getValue());
+      for (String lang : langs.get(entry.getKey())) {
+        s.append(RS).append(lang);
+      }
+      index.setUnindexedProperty(Long.toString(entry.getKey()), s.toString());
+    }
+    return index;
+  }
+
+  private void addToCache() {
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    Storage.cachePut(syncCache, getMemcacheKey(this.month), this);
+  }
+
+  /**
+   * Returns the counts of each day with events, e.g. { "month": "2014-05",
+   * "days": { "3": { "events": 2, "translated": { "de": 2, "en": 1 } } } }.
+   */
+  public JSONObject toJSON() {
+    JSONObject json = new JSONObject();
+    json.put("month", String.format("%04d-%02d", month.get(Calendar.YEAR),
+        month.get(Calendar.MONTH) + 1));
+    JSONObject jsonDays = new JSONObject();
+    for (Map.Entry<Long, Integer> entry : days.entrySet()) {
+      String day = entry.getValue().toString();
+      JSONObject counts = jsonDays.optJSONObject(day);
+      if (counts == null) {
+        counts = new JSONObject();
+        counts.put("events", 0);
+        counts.put("translated", new JSONObject());
+        jsonDays.put(day, counts);
+      }
+      counts.increment("events");
+      for (String lang : langs.get(entry.getKey())) {
+        counts.getJSONObject("translated").increment(lang);
+      }
+    }
+    json.put("days", jsonDays);
+    return json;
+  }
+
+  /** Only getters below. */
+  public Calendar getMonth() {
+    return month;
+  }
+  public int getEventCount() {
+    return days.size();
+  }
+}
@@ -0,0 +1,516 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+/**
+ * Creation of the MailChimp campaigns of a month, run in the background.
+ *
+ * The admin UI submits the job, which is stored and handed to the task queue.
+ * The task (Maps_AdminJobsServlet) renders the newsletters and creates one
+ * campaign per language, storing its progress as it goes. The admin UI polls
+ * the job until it is done.
+ *
+ * MailChimp campaigns can't be created twice safely, so a run first claims
+ * the job in a transaction, and each campaign is stored as soon as it is
+ * created. A run that takes over from a dead one only creates the campaigns
+ * that are missing.
+ */
+public class CampaignJob implements java.io.Serializable {
+  private static final long serialVersionUID = 161734L;
+  public static final String entityKind = "CampaignJob";
+  public static final String monthProperty = "month";
+  public static final String backgroundColorProperty = "bgcolor";
+  public static final String serverNameProperty = "server";
+  public static final String statusProperty = "status";
+  public static final String progressProperty = "progress";
+  public static final String totalProperty = "total";
+  public static final String resultProperty = "result";
+  public static final String createdProperty = "created";
+  public static final String leaseProperty = "lease";
+  public static final String campaignsProperty = "campaigns";
+
+  /** URL of the task that runs the jobs. */
+  public static final String TASK_URL = "/admin/jobs";
+  /**
+   * How long a run holds the job. Longer than the 10 minute deadline of the
+   * tasks of push queues, after which the run is dead.
+   */
+  private static final int LEASE_SECONDS = 15 * 60;
+
+  public static final String QUEUED = "queued";
+  public static final String RUNNING = "running";
+  public static final String DONE = "done";
+  public static final String ERROR = "error";
+
+  private final String id;
+  /** Month the campaigns are for, yyyy-MM. */
+  private final String month;
+  private final String backgroundColor;
+  /** Name of the server that submitted the job, for the links. */
+  private final String serverName;
+  private final Date created;
+  private String status;
+  /** Steps done so far, out of total. */
+  private int progress;
+  private int total;
+  /** JSON with the created campaigns, or the error. Null until done. */
+  private String result;
+  /** Until when the job is held by its run. Null until it is claimed. */
+  private Date lease;
+  /**
+   * JSON with the campaigns created so far, by language, e.g.
+   * { "en": { "id": "...", "title": "..." } }.
+   */
+  private String campaigns;
+
+  public CampaignJob(String month, String backgroundColor, String serverName) {
+    this(UUID.randomUUID().toString(), month, backgroundColor, serverName,
+        new Date(), QUEUED, 0, 0, null, null, "{}");
+  }
+
+  private CampaignJob(String id, String month, String backgroundColor,
+      String serverName, Date created, String status, int progress, int total,
+      String result, Date lease, String campaigns) {
+    this.id = id;
+    this.month = month;
+    this.backgroundColor = backgroundColor;
+    this.serverName = serverName;
+    this.created = created;
+    this.status = status;
+    this.progress = progress;
+    this.total = total;
+    this.result = result;
+    this.lease = lease;
+    this.campaigns = campaigns;
+  }
+
+  private static String getMemcacheKey(String id) {
+    return String.format("%s-%s", entityKind, id);
+  }
+
+  /** @return the job, or null if there is no job with this id. */
+  public static CampaignJob fetchFromStore(String id) {
+    if (id == null || id.isEmpty())
+      return null;
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    Object cached = Storage.cacheGet(syncCache, entityKind, getMemcacheKey(id));
+    if (cached != null) {
+      return (CampaignJob) cached;
+    }
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    try {
+      Entity e = Storage.get(datastore, KeyFactory.createKey(entityKind, id));
+      return fromEntity(e);
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Stores the job and adds the task that runs it.
+   *
+   * @return true if this operation succeeded.
+   */
+  public boolean submit() {
+    if (!addToStore())
+      return false;
+    try {
+      QueueFactory.getDefaultQueue().add(
+          TaskOptions.Builder.withUrl(TASK_URL).param("id", id));
+    } catch (RuntimeException ex) {
+      ex.printStackTrace();
+      status = ERROR;
+      result = error("Queue", "Failed to start the job: " + ex.toString()).toString();
+      addToStore();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Runs the job: renders the newsletters and creates the campaigns, see
+   * claim(). A task that is retried while the job runs is ignored. A job whose
+   * lease expired died with its instance, and is run again by the retried
+   * task.
+   *
+   * @return false if the job was not run.
+   */
+  public boolean run() {
+    // Outside of the transaction of claim(), which may only use the entity
+    // group of the job.
+    int languages = Language.getAllLanguages().size();
+    if (!claim()) {
+      return false;
+    }
+    synchronized (this) {
+      // + 1 for rendering, + 1 for the fallback campaign.
+      total = languages + 2;
+      addToStore();
+    }
+
+    JSONObject response;
+    try {
+      response = createCampaigns();
+    } catch (RuntimeException ex) {
+      ex.printStackTrace();
+      response = error("Job", ex.toString());
+    }
+    synchronized (this) {
+      status = "error".equals(response.optString("status")) ? ERROR : DONE;
+      progress = total;
+      result = response.toString();
+      addToStore();
+    }
+    return true;
+  }
+
+  /**
+   * Claims the job for this run in a transaction, so that a single run gets
+   * it: a queued job, or a running one whose lease expired. Loads the stored
+   * state of the job into this instance, which may come from memcache.
+   *
+   * @return true if the job was claimed.
+   */
+  private synchronized boolean claim() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Transaction txn = datastore.beginTransaction();
+    try {
+      CampaignJob stored;
+      try {
+        stored = fromEntity(Storage.get(datastore, txn,
+            KeyFactory.createKey(entityKind, id)));
+      } catch (EntityNotFoundException e) {
+        return false;
+      }
+      status = stored.status;
+      progress = stored.progress;
+      total = stored.total;
+      result = stored.result;
+      campaigns = stored.campaigns;
+      Date now = new Date();
+      boolean dead = RUNNING.equals(status)
+          && (stored.lease == null || stored.lease.before(now));
+      if (!QUEUED.equals(status) && !dead) {
+        return false;
+      }
+      status = RUNNING;
+      lease = new Date(now.getTime() + LEASE_SECONDS * 1000L);
+      Storage.put(datastore, txn, toEntity());
+      txn.commit();
+    } catch (ConcurrentModificationException e) {
+      // Another run claimed the job, or stored its progress.
+      status = RUNNING;
+      return false;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+    addToCache();
+    return true;
+  }
+
+  private JSONObject createCampaigns() {
+    Calendar date = Calendar.getInstance();
+    try {
+      date.setTime(new SimpleDateFormat("yyyy-MM").parse(month));
+    } catch (Exception e) {
+    }
+    // Set the time at midnight, so that the below query stays the same.
+    date.set(Calendar.MILLISECOND, 0);
+    date.set(Calendar.SECOND, 0);
+    date.set(Calendar.MINUTE, 0);
+    date.set(Calendar.HOUR_OF_DAY, 0);
+    date.set(Calendar.DATE, 1);
+
+    MailChimpCredentials credentials = MailChimpCredentials.fetchFromStore();
+    String subject = "MAPS Agenda Newsletter "
+        + date.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.GERMAN)
+        + " " + date.get(Calendar.YEAR);
+    String fromName = Phrases.getMergedPhrases("de").get("zuriAgenda").getPhrase();
+
+    // One campaign per language, sent to the subscribers of that language
+    // only. Each email then carries just its own newsletter instead of all of
+    // them behind MailChimp conditional merge tags.
+    String baseUrl = "localhost".equals(serverName) ? "http://localhost:8888"
+        : "http://www.maps-agenda.ch";
+    Map<String, String> newsletters = new Newsletters(date, baseUrl)
+        .renderAll(backgroundColor);
+    synchronized (this) {
+      total = newsletters.size() + 2;
+      progress = 1;
+      addToStore();
+    }
+
+    MailChimpClient client = MailChimpClient.forApiKey(credentials.getApiKey());
+    JSONObject response = new JSONObject();
+    response.put("title", subject);
+    response.put("campaigns", new JSONArray());
+    // The campaigns created by a previous run of this job.
+    JSONObject existing = getCampaigns();
+    // All the campaigns of the job, in order.
+    List<String> labels = new ArrayList<String>();
+    List<String> langs = new ArrayList<String>();
+    List<Callable<JSONObject>> calls = new ArrayList<Callable<JSONObject>>();
+    AtomicInteger done = new AtomicInteger(1 + existing.length());
+    JSONObject fallback = new JSONObject();
+    fallback.put("match", "all");
+    for (Map.Entry<String, String> newsletter : newsletters.entrySet()) {
+      String lang = newsletter.getKey();
+      JSONObject segment = new JSONObject();
+      segment.put("match", "all");
+      segment.append("conditions", languageCondition("eq", lang));
+      fallback.append("conditions", languageCondition("ne", lang));
+
+      labels.add(lang);
+      if (!existing.has(lang)) {
+        langs.add(lang);
+        calls.add(createCampaignTask(client, lang, campaignRequest(credentials,
+            subject, subject + " (" + lang + ")", fromName,
+            newsletter.getValue(), segment), done));
+      }
+    }
+    // The subscribers whose language is none of the agenda languages get the
+    // English newsletter, as with the ELSE branch of the single campaign
+    // before.
+    String fallbackLang = newsletters.containsKey("en") ? "en" : "de";
+    String fallbackLabel = fallbackLang + " (" + FALLBACK + ")";
+    if (newsletters.containsKey(fallbackLang)) {
+      labels.add(fallbackLabel);
+    }
+    if (newsletters.containsKey(fallbackLang) && !existing.has(fallbackLabel)) {
+      langs.add(fallbackLabel);
+      calls.add(createCampaignTask(client, fallbackLabel, campaignRequest(
+          credentials, subject, subject + " (" + FALLBACK + ")", fromName,
+          newsletters.get(fallbackLang), fallback), done));
+    }
+
+    // The campaigns are independent, create them all at once.
+    List<JSONObject> results = Parallel.invokeAll(calls);
+    StringBuilder errors = new StringBuilder();
+    String errorName = null;
+    for (int i = 0; i < results.size(); i++) {
+      JSONObject created = results.get(i);
+      if ("error".equals(created.optString("status"))) {
+        if (errorName == null) {
+          errorName = created.optString("name");
+        } else {
+          errors.append("; ");
+        }
+        errors.append(langs.get(i) + ": " + created.optString("error"));
+      }
+    }
+    // The campaigns of this run and of the previous ones.
+    JSONObject all = getCampaigns();
+    for (String label : labels) {
+      JSONObject campaign = all.optJSONObject(label);
+      if (campaign != null) {
+        campaign.put("lang", label);
+        response.append("campaigns", campaign);
+      }
+    }
+    if (errorName != null) {
+      // Same fields as a MailChimp error (status, name, error), the campaigns
+      // that could be created are still listed.
+      response.put("status", "error");
+      response.put("name", errorName);
+      response.put("error", errors.toString());
+    } else {
+      response.put("status", "ok");
+    }
+    return response;
+  }
+
+  /** Title suffix of the campaign for the subscribers of no language. */
+  private static final String FALLBACK = "other";
+
+  private static JSONObject languageCondition(String op, String lang) {
+    JSONObject condition = new JSONObject();
+    condition.put("field", "LANGUAGE");
+    condition.put("op", op);
+    condition.put("value", lang);
+    return condition;
+  }
+
+  /** @return the parameters of campaigns/create for one campaign. */
+  private static JSONObject campaignRequest(MailChimpCredentials credentials,
+      String subject, String title, String fromName, String html,
+      JSONObject segment) {
+    JSONObject options = new JSONObject();
+    options.put("list_id", credentials.getListId());
+    options.put("subject", subject);
+    options.put("title", title);
+    options.put("from_name", JSONObject.stringToValue(fromName));
+    options.put("from_email", "maps@aoz.ch");
+    options.put("to_name", "*|NAME|*");
+    options.put("generate_text", true);
+
+    JSONObject content = new JSONObject();
+    content.put("html", JSONObject.stringToValue(NEWSLETTER_DOCTYPE + html));
+
+    JSONObject json = new JSONObject();
+    json.put("apikey", credentials.getApiKey());
+    json.put("type", "regular");
+    json.put("options", options);
+    json.put("segment_opts", segment);
+    json.put("content", content);
+    return json;
+  }
+
+  private static final String NEWSLETTER_DOCTYPE =
+      "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Transitional"
+      + "//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-transition"
+      + "al.dtd\">\n";
+
+  /**
+   * @return a task creating the campaign. It returns the answer of MailChimp,
+   *         or an error in the same format if MailChimp could not be reached.
+   *         A created campaign is stored in the job right away.
+   */
+  private Callable<JSONObject> createCampaignTask(final MailChimpClient client,
+      final String lang, final JSONObject json, final AtomicInteger done) {
+    return new Callable<JSONObject>() {
+      @Override
+      public JSONObject call() {
+        JSONObject answer;
+        try {
+          answer = client.call("campaigns/create.json", json).getBody();
+        } catch (IOException e) {
+          answer = error("Request", "Error while sending request to MailChimp: "
+              + e.toString());
+        }
+        synchronized (CampaignJob.this) {
+          if (!"error".equals(answer.optString("status"))) {
+            JSONObject campaign = new JSONObject();
+            campaign.put("id", answer.optString("id"));
+            campaign.put("title", answer.optString("title"));
+            campaigns = getCampaigns().put(lang, campaign).toString();
+          }
+          progress = Math.max(progress, done.incrementAndGet());
+          addToStore();
+        }
+        return answer;
+      }
+    };
+  }
+
+  private synchronized JSONObject getCampaigns() {
+    // Null in the jobs cached before the campaigns were stored.
+    return new JSONObject(campaigns == null ? "{}" : campaigns);
+  }
+
+  private static JSONObject error(String name, String message) {
+    JSONObject error = new JSONObject();
+    error.put("status", "error");
+    error.put("name", name);
+    error.put("error", message);
+    return error;
+  }
+
+  /**
+   * Replaces the job in the datastore with this instance.
+   *
+   * @return true if this operation succeeded.
+   */
+  public synchronized boolean addToStore() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    try {
+      Storage.put(datastore, this.toEntity());
+    } catch (Exception ex) {
+      ex.printStackTrace();
+      return false;
+    }
+    addToCache();
+    return true;
+  }
+
+  /** Utilities for storing and caching  */
+
+  private Entity toEntity() {
+    Entity entity = new Entity(entityKind, id);
+    entity.setUnindexedProperty(monthProperty, month);
+    entity.setUnindexedProperty(backgroundColorProperty, backgroundColor);
+    entity.setUnindexedProperty(serverNameProperty, serverName);
+    entity.setProperty(createdProperty, created);
+    entity.setUnindexedProperty(statusProperty, status);
+    entity.setUnindexedProperty(progressProperty, (long) progress);
+    entity.setUnindexedProperty(totalProperty, (long) total);
+    if (result != null) {
+      entity.setUnindexedProperty(resultProperty, new Text(result));
+    }
+    if (lease != null) {
+      entity.setUnindexedProperty(leaseProperty, lease);
+    }
+    entity.setUnindexedProperty(campaignsProperty,
+        new Text(getCampaigns().toString()));
+    return entity;
+  }
+
+  private static CampaignJob fromEntity(Entity entity) {
+    Text result = (Text)entity.getProperty(resultProperty);
+    Text campaigns = (Text)entity.getProperty(campaignsProperty);
+    return new CampaignJob(entity.getKey().getName(),
+        (String)entity.getProperty(monthProperty),
+        (String)entity.getProperty(backgroundColorProperty),
+        (String)entity.getProperty(serverNameProperty),
+        (Date)entity.getProperty(createdProperty),
+        (String)entity.getProperty(statusProperty),
+        ((Long)entity.getProperty(progressProperty)).intValue(),
+        ((Long)entity.getProperty(totalProperty)).intValue(),
+        result == null ? null : result.getValue(),
+        (Date)entity.getProperty(leaseProperty),
+        campaigns == null ? "{}" : campaigns.getValue());
+  }
+
+  private void addToCache() {
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    Storage.cachePut(syncCache, getMemcacheKey(id), this);
+  }
+
+  public synchronized JSONObject toJSON() {
+    JSONObject json = new JSONObject();
+    json.put("id", id);
+    json.put("month", month);
+    json.put("status", status);
+    json.put("progress", progress);
+    json.put("total", total);
+    if (result != null) {
+      json.put("result", new JSONObject(result));
+    }
+    return json;
+  }
+
+  /** Only setters and getters below. */
+  public String getId() {
+    return id;
+  }
+  public synchronized String getStatus() {
+    return status;
+  }
+}
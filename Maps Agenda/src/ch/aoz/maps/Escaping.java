@@ -0,0 +1,229 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Escapes text for the contexts the app writes to: JSON strings, HTML text,
+ * HTML attribute values and the XML export for InDesign.
+ *
+ * The String methods return their input unchanged when there is nothing to
+ * escape, and otherwise escape it in a single pass into a buffer of the
+ * thread, so that only the result is allocated. The append methods write
+ * straight into the provided Appendable (e.g. a StringBuilder or a JSP
+ * Writer), copying runs of characters that don't need escaping in bulk.
+ * HtmlBuffer is the byte sink for HTML, using the same entities.
+ *
+ * Apart from json(), null is returned as is.
+ * Threadsafe.
+ */
+public class Escaping {
+  private static final int JSON = 0;
+  private static final int HTML_TEXT = 1;
+  private static final int HTML_ATTRIBUTE = 2;
+  private static final int XML = 3;
+
+  static final String AMP = "&amp;";
+  static final String LT = "&lt;";
+  static final String GT = "&gt;";
+  static final String QUOT = "&quot;";
+  static final String APOS = "&#39;";
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /** Largest buffer kept by a thread, larger ones are only used once. */
+  private static final int MAX_BUFFER = 64 * 1024;
+  private static final ThreadLocal<char[]> buffers = new ThreadLocal<char[]>() {
+    @Override
+    protected char[] initialValue() {
+      return new char[1024];
+    }
+  };
+
+  private Escaping() {
+  }
+
+  /**
+   * Escapes s to be used in a JSON string: line breaks as \n and \r, and
+   * anything but printable ASCII, as well as ", \ and /, as \\uXXXX.
+   * Returns "" for null.
+   */
+  public static String json(String s) {
+    return escape(JSON, s == null ? "" : s);
+  }
+
+  /** Escapes s to be used as text in an HTML element. */
+  public static String html(String s) {
+    return escape(HTML_TEXT, s);
+  }
+
+  /** Escapes s to be used as the value of an HTML attribute. */
+  public static String htmlAttribute(String s) {
+    return escape(HTML_ATTRIBUTE, s);
+  }
+
+  /**
+   * Escapes s for the XML export. Only the characters known to confuse
+   * InDesign are replaced: &, <, > and ".
+   */
+  public static String xml(String s) {
+    return escape(XML, s);
+  }
+
+  public static void appendJson(Appendable out, String s) throws IOException {
+    append(JSON, out, s == null ? "" : s);
+  }
+
+  public static void appendHtml(Appendable out, String s) throws IOException {
+    append(HTML_TEXT, out, s);
+  }
+
+  public static void appendHtmlAttribute(Appendable out, String s)
+      throws IOException {
+    append(HTML_ATTRIBUTE, out, s);
+  }
+
+  public static void appendXml(Appendable out, String s) throws IOException {
+    append(XML, out, s);
+  }
+
+  private static String escape(int context, String s) {
+    if (s == null) {
+      return null;
+    }
+    int i = indexOfSpecial(context, s, 0);
+    if (i < 0) {
+      return s;
+    }
+    // Escaped in one pass into the buffer of the thread, which is much faster
+    // than a StringBuilder for translations, where nearly every char is
+    // escaped. It is grown to fit the longest possible result, every
+    // remaining char escaped to 6 chars (\\uXXXX or &quot;).
+    int maxLength = i + 6 * (s.length() - i);
+    char[] escaped = buffers.get();
+    if (escaped.length < maxLength) {
+      escaped = new char[maxLength];
+      if (maxLength <= MAX_BUFFER) {
+        buffers.set(escaped);
+      }
+    }
+    s.getChars(0, i, escaped, 0);
+    int pos = i;
+    for (; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (!isSpecial(context, c)) {
+        escaped[pos++] = c;
+      } else if (context == JSON) {
+        pos = putJsonEscape(escaped, pos, c);
+      } else {
+        String entity = entity(c);
+        entity.getChars(0, entity.length(), escaped, pos);
+        pos += entity.length();
+      }
+    }
+    return new String(escaped, 0, pos);
+  }
+
+  private static void append(int context, Appendable out, String s)
+      throws IOException {
+    append(context, out, s, indexOfSpecial(context, s, 0));
+  }
+
+  /** @param i index of the first character to escape, or -1. */
+  private static void append(int context, Appendable out, String s, int i)
+      throws IOException {
+    int start = 0;
+    while (i >= 0) {
+      copy(out, s, start, i);
+      char c = s.charAt(i);
+      if (context == JSON) {
+        appendJsonEscape(out, c);
+      } else {
+        out.append(entity(c));
+      }
+      start = i + 1;
+      i = indexOfSpecial(context, s, start);
+    }
+    copy(out, s, start, s.length());
+  }
+
+  private static void copy(Appendable out, String s, int start, int end)
+      throws IOException {
+    if (start == end) {
+      return;
+    }
+    if (out instanceof Writer) {
+      // Writer.append() would copy the range to a new String first.
+      ((Writer) out).write(s, start, end - start);
+    } else {
+      out.append(s, start, end);
+    }
+  }
+
+  private static int indexOfSpecial(int context, String s, int from) {
+    for (int i = from; i < s.length(); i++) {
+      if (isSpecial(context, s.charAt(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isSpecial(int context, char c) {
+    switch (context) {
+    case JSON:
+      return !((c > 32 && c < 128 && c != '"' && c != '\\' && c != '/')
+          || c == ' ');
+    case HTML_TEXT:
+      return c == '&' || c == '<' || c == '>';
+    case HTML_ATTRIBUTE:
+      return c == '&' || c == '<' || c == '>' || c == '"' || c == '\'';
+    default:
+      return c == '&' || c == '<' || c == '>' || c == '"';
+    }
+  }
+
+  private static String entity(char c) {
+    switch (c) {
+    case '&':
+      return AMP;
+    case '<':
+      return LT;
+    case '>':
+      return GT;
+    case '"':
+      return QUOT;
+    default:
+      return APOS;
+    }
+  }
+
+  private static void appendJsonEscape(Appendable out, char c)
+      throws IOException {
+    if (c == '\n') {
+      out.append("\\n");
+    } else if (c == '\r') {
+      out.append("\\r");
+    } else {
+      out.append('\\').append('u')
+          .append(HEX[(c >> 12) & 0xf]).append(HEX[(c >> 8) & 0xf])
+          .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+    }
+  }
+
+  private static int putJsonEscape(char[] out, int pos, char c) {
+    out[pos++] = '\\';
+    if (c == '\n') {
+      out[pos++] = 'n';
+    } else if (c == '\r') {
+      out[pos++] = 'r';
+    } else {
+      out[pos++] = 'u';
+      out[pos++] = HEX[(c >> 12) & 0xf];
+      out[pos++] = HEX[(c >> 8) & 0xf];
+      out[pos++] = HEX[(c >> 4) & 0xf];
+      out[pos++] = HEX[c & 0xf];
+    }
+    return pos;
+  }
+}
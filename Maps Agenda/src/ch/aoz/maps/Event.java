@@ -112,8 +112,8 @@ public class Event implements Comparable<Event>, java.io.Serializable {
       String url, Set<String> tags) {
     this.key = key;
     this.hasKey = true;
-    this.location = (location != null ? location.trim() : "");
-    this.transit = (transit != null ? transit.trim() : "");
+    this.location = Utils.normalizeText(location);
+    this.transit = Utils.normalizeText(transit);
     this.url = (url != null ? url.trim() : "");
     this.tags = new HashSet<String>();
     if (tags != null)
@@ -135,8 +135,8 @@ public class Event implements Comparable<Event>, java.io.Serializable {
       Set<String> tags, EventDescription d) {
     this.key = 0;
     this.hasKey = false;
-    this.location = (location != null ? location.trim() : "");
-    this.transit = (transit != null ? transit.trim() : "");
+    this.location = Utils.normalizeText(location);
+    this.transit = Utils.normalizeText(transit);
     this.url = (url != null ? url.trim() : "");
     this.tags = new HashSet<String>();
     if (tags != null)
@@ -155,9 +155,9 @@ public class Event implements Comparable<Event>, java.io.Serializable {
     key = o.getLong("key");
     hasKey = (key != 0);
     calendar = stringToDate(o.getString("date"));
-    location = o.getString("location");
-    transit = o.getString("transit");
-    url = o.getString("url");
+    location = Utils.normalizeText(o.getString("location"));
+    transit = Utils.normalizeText(o.getString("transit"));
+    url = o.getString("url").trim();
     tags = new HashSet<String>();
     JSONArray json_tags = o.getJSONArray("tags");
     for (int i = 0; i < json_tags.length(); ++i) {
@@ -170,15 +170,24 @@ public class Event implements Comparable<Event>, java.io.Serializable {
     }
   }
 
+  /** Copies an event, without normalizing its text again. */
+  private Event(Event other) {
+    this.key = other.key;
+    this.hasKey = other.hasKey;
+    this.calendar = other.calendar == null ? null : toCalendar(other.calendar.getTime());
+    this.description = other.description;
+    this.location = other.location;
+    this.transit = other.transit;
+    this.url = other.url;
+    this.tags = new HashSet<String>(other.tags);
+    this.ok = other.ok;
+    if (other.errors != null)
+      this.errors = new ArrayList<String>(other.errors);
+  }
+
   @Override
   public Event clone() {
-    Event e = new Event(calendar, key, location, transit, url, tags);
-    e.hasKey = hasKey;
-    e.description = description;
-    e.ok = ok;
-    if (errors != null)
-      e.errors.addAll(errors);
-    return e;
+    return new Event(this);
   }
 
   /**
@@ -239,17 +248,17 @@ public class Event implements Comparable<Event>, java.io.Serializable {
   }
 
   public void clearLocationTransitUrl() {
-    this.location = new String();
-    this.transit = new String();
-    this.url = new String();
+    this.location = "";
+    this.transit = "";
+    this.url = "";
   }
 
   public String getLocation() {
-    return Utils.replaceDoubleQuotes(location);
+    return location;
   }
 
   public String getTransit() {
-    return Utils.replaceDoubleQuotes(transit);
+    return transit;
   }
 
   public String getUrl() {
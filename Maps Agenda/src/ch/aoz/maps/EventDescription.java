@@ -18,18 +18,10 @@ public class EventDescription implements java.io.Serializable {
   
   public EventDescription(String lang, String title, String desc) {
     this.lang = lang;
-    
-    if (title == null || title.isEmpty()) {
-	this.title = "";
-    } else {
-	this.title = Utils.replaceDoubleQuotes(title.trim());
-    }
-    if (desc == null || desc.isEmpty()) {
-	this.desc = "";
-    } else {
-	this.desc = Utils.replaceDoubleQuotes(desc.trim());
-    }
-    
+    // Stored normalized, so that the getters don't need to.
+    this.title = Utils.normalizeText(title);
+    this.desc = Utils.normalizeText(desc);
+
     isOk = (lang != null && !lang.isEmpty());
   }
   
@@ -1,6 +1,10 @@
 package ch.aoz.maps;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -9,6 +13,7 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Text;
 import com.google.appengine.api.memcache.MemcacheService;
@@ -86,18 +91,68 @@ public class EventDescriptions implements java.io.Serializable {
    */
   public static EventDescriptions getDescriptions(String lang, Calendar c) {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    if (syncCache.contains(getMemcacheKey(lang, c))) {
-      return (EventDescriptions)syncCache.get(getMemcacheKey(lang, c));
+    Object cached = Storage.cacheGet(syncCache, entityKind, getMemcacheKey(lang, c));
+    if (cached != null) {
+      return (EventDescriptions) cached;
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      Entity e = datastore.get(KeyFactory.createKey(entityKind, getKey(lang, c)));
+      Entity e = Storage.get(datastore, KeyFactory.createKey(entityKind, getKey(lang, c)));
       return new EventDescriptions(lang, c, e);
     } catch (EntityNotFoundException e) {
       return new EventDescriptions(lang, c);
     }
   }
-  
+
+  /**
+   * Returns the EventDescriptions of the month specified in the calendar for
+   * all the requested languages. Memcache and the datastore are each queried
+   * once for the whole batch instead of once per language.
+   *
+   * @return a map from language code to EventDescriptions. Every requested
+   *         language has an entry, possibly with no description in it.
+   */
+  public static Map<String, EventDescriptions> getDescriptions(
+      Collection<String> langs, Calendar c) {
+    Map<String, EventDescriptions> result = new HashMap<String, EventDescriptions>();
+    if (langs.isEmpty())
+      return result;
+
+    List<String> memcacheKeys = new ArrayList<String>();
+    for (String lang : langs) {
+      memcacheKeys.add(getMemcacheKey(lang, c));
+    }
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    Map<String, Object> cached =
+        Storage.cacheGetAll(syncCache, entityKind, memcacheKeys);
+
+    List<Key> missing = new ArrayList<Key>();
+    for (String lang : langs) {
+      Object o = cached.get(getMemcacheKey(lang, c));
+      if (o != null) {
+        result.put(lang, (EventDescriptions)o);
+      } else {
+        missing.add(KeyFactory.createKey(entityKind, getKey(lang, c)));
+      }
+    }
+    if (missing.isEmpty())
+      return result;
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Map<Key, Entity> entities = Storage.get(datastore, entityKind, missing);
+    for (String lang : langs) {
+      if (result.containsKey(lang))
+        continue;
+      Entity e = entities.get(KeyFactory.createKey(entityKind, getKey(lang, c)));
+      if (e != null) {
+        result.put(lang, new EventDescriptions(lang, c, e));
+      } else {
+        result.put(lang, new EventDescriptions(lang, c));
+      }
+    }
+    return result;
+  }
+
   public static boolean addDescription(Event e) {
     if (e == null || !e.hasKey()) 
       return false;
@@ -138,7 +193,7 @@ public class EventDescriptions implements java.io.Serializable {
   public boolean addToStore() {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      datastore.put(this.toEntity());
+      Storage.put(datastore, this.toEntity());
     } catch (Exception ex) {
       ex.printStackTrace();
       debug.append("exception (datastore null? ");
@@ -147,6 +202,9 @@ public class EventDescriptions implements java.io.Serializable {
       return false;
     }
     addToCache();
+    EventWindows.invalidate();
+    // Not checked: the counts of the calendar are off, the descriptions are stored.
+    CalendarIndex.update(this);
     return true;
   }
   
@@ -191,7 +249,7 @@ public class EventDescriptions implements java.io.Serializable {
 
   private void addToCache() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    syncCache.put(getMemcacheKey(this.lang, this.month), this);    
+    Storage.cachePut(syncCache, getMemcacheKey(this.lang, this.month), this);    
   }
   
   /** Only setters and getters below. */
@@ -0,0 +1,189 @@
+package ch.aoz.maps;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * Pages of events of the public agenda, as JSON, for infinite scrolling:
+ * { "events": [...], "next": cursor }.
+ *
+ * A page holds the events after (or before) a position, in any number of
+ * months. The position is given by a cursor, an opaque string returned as
+ * "next" by the previous page, or by a day for the first page. "next" is
+ * null when there are no more events in the next MAX_MONTHS months.
+ *
+ * The months are loaded one at a time, and only until the page is full.
+ * Pages are cached in memcache like the windows of EventWindows, and
+ * rendered again when the windows are.
+ */
+public class EventPages {
+  public static final int DEFAULT_SIZE = EventWindows.MAX_EVENTS;
+  public static final int MAX_SIZE = 50;
+  /** Number of months without events after which paging stops. */
+  public static final int MAX_MONTHS = 12;
+
+  private static final String kind = "EventPage";
+  private static final int EXPIRATION_SECONDS = 2 * 24 * 3600;
+
+  private EventPages() {
+  }
+
+  /**
+   * @return the first page of events from this day, or up to this day if
+   *         !forward.
+   */
+  public static String getFirst(Language lang, Calendar day, boolean forward,
+      int size) {
+    // Before (after) all the events of the day.
+    long key = forward ? Long.MIN_VALUE : Long.MAX_VALUE;
+    return get(lang, new Position(toDay(day), key, forward), size);
+  }
+
+  /**
+   * @return the page after the cursor, or null if the cursor is invalid.
+   */
+  public static String get(Language lang, String cursor, int size) {
+    Position position = Position.parse(cursor);
+    if (position == null) {
+      return null;
+    }
+    return get(lang, position, size);
+  }
+
+  private static String get(Language lang, Position position, int size) {
+    size = Math.max(1, Math.min(size, MAX_SIZE));
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    String key = String.format("%s-%d-%s-%s-%d", kind,
+        EventWindows.getGeneration(), lang.getCode(), position, size);
+    Object cached = Storage.cacheGet(syncCache, kind, key);
+    if (cached != null) {
+      return (String) cached;
+    }
+    String page = render(lang, position, size);
+    Storage.cachePut(syncCache, key, page,
+        Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+    return page;
+  }
+
+  private static String render(Language lang, Position position, int size) {
+    List<Event> page = new ArrayList<Event>();
+    Calendar month = position.getMonth();
+    // Months in a row without any event after the position.
+    int emptyMonths = 0;
+    while (page.size() < size && emptyMonths < MAX_MONTHS) {
+      List<Event> events =
+          new ArrayList<Event>(Events.getEvents(month, lang.getCode()).getSortedEvents());
+      if (!position.forward) {
+        Collections.reverse(events);
+      }
+      int found = 0;
+      for (Iterator<Event> it = events.iterator(); it.hasNext() && page.size() < size;) {
+        Event e = it.next();
+        if (e.getDescription() != null && position.precedes(e)) {
+          page.add(e);
+          found++;
+        }
+      }
+      emptyMonths = found == 0 ? emptyMonths + 1 : 0;
+      month.add(Calendar.MONTH, position.forward ? 1 : -1);
+    }
+    if (!position.forward) {
+      Collections.reverse(page);
+    }
+
+    StringBuilder response = new StringBuilder();
+    response.append("{ \"events\": [");
+    for (Event e : page) {
+      EventWindows.appendEvent(response, e, e.getDescription());
+      response.append(",");
+    }
+    if (response.charAt(response.length() - 1) == ',') {
+      response.deleteCharAt(response.length() - 1); // remove the last ,
+    }
+    response.append("], \"next\": ");
+    if (page.size() < size) {
+      response.append("null");
+    } else {
+      Event last = position.forward ? page.get(page.size() - 1) : page.get(0);
+      response.append("\"").append(new Position(
+          toDay(last.getCalendar()), last.getKey(), position.forward)).append("\"");
+    }
+    response.append("}");
+    return response.toString();
+  }
+
+  /** @return the day as yyyyMMdd. */
+  private static int toDay(Calendar c) {
+    return c.get(Calendar.YEAR) * 10000 + (c.get(Calendar.MONTH) + 1) * 100
+        + c.get(Calendar.DATE);
+  }
+
+  /**
+   * A position between two events, ordered by day and key, and the direction
+   * of the paging. Written as a cursor, e.g. "bzown.2f" for the event with key 2 on October 15, 2014.
+   */
+  private static class Position {
+    private final int day;
+    private final long key;
+    private final boolean forward;
+
+    Position(int day, long key, boolean forward) {
+      this.day = day;
+      this.key = key;
+      this.forward = forward;
+    }
+
+    /** @return the position, or null if the cursor is invalid. */
+    static Position parse(String cursor) {
+      if (cursor == null || cursor.length() < 4) {
+        return null;
+      }
+      char direction = cursor.charAt(cursor.length() - 1);
+      int dot = cursor.indexOf('.');
+      if ((direction != 'f' && direction != 'b') || dot < 0) {
+        return null;
+      }
+      try {
+        int day = Integer.parseInt(cursor.substring(0, dot), Character.MAX_RADIX);
+        long key = Long.parseLong(cursor.substring(dot + 1, cursor.length() - 1),
+            Character.MAX_RADIX);
+        if (day / 100 % 100 < 1 || day / 100 % 100 > 12) {
+          return null;
+        }
+        return new Position(day, key, direction == 'f');
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    /** @return the first day of the month of the position. */
+    Calendar getMonth() {
+      Calendar month = Calendar.getInstance();
+      month.clear();
+      month.set(day / 10000, day / 100 % 100 - 1, 1);
+      return month;
+    }
+
+    /** @return whether the event comes after this position when paging. */
+    boolean precedes(Event e) {
+      int c = Integer.compare(toDay(e.getCalendar()), day);
+      if (c == 0) {
+        c = Long.compare(e.getKey(), key);
+      }
+      return forward ? c > 0 : c < 0;
+    }
+
+    @Override
+    public String toString() {
+      return Integer.toString(day, Character.MAX_RADIX) + "."
+          + Long.toString(key, Character.MAX_RADIX) + (forward ? "f" : "b");
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package ch.aoz.maps;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * The windows of events of the public agenda, as JSON: up to MAX_DAYS days
+ * from (or up to) a day, at most MAX_EVENTS events, in one language.
+ *
+ * Rendered windows are cached in memcache by language, day and direction.
+ * Storing events, descriptions or languages increments a generation that is
+ * part of the keys, so that all windows are rendered again. Windows of a day
+ * expire after two days anyway. The windows of the next day are rendered
+ * before midnight by precompute(), see Maps_AdminCronServlet.
+ */
+public class EventWindows {
+  public static final int MAX_EVENTS = 15;
+  public static final int MAX_DAYS = 15;
+
+  private static final String kind = "EventWindow";
+  private static final SharedCounter GENERATION =
+      new SharedCounter(kind + "_generation");
+  private static final int EXPIRATION_SECONDS = 2 * 24 * 3600;
+
+  private EventWindows() {
+  }
+
+  /**
+   * @param day first day of the window, or last if !forward. Only its date
+   *        is used.
+   * @return the window, from memcache if it was rendered before.
+   */
+  public static String get(Language lang, Calendar day, boolean forward) {
+    return get(lang, day, forward, false);
+  }
+
+  /**
+   * Same as get(), and queues the prefetch of the windows the agenda pages to
+   * from this one, see Prefetch.
+   */
+  public static String getAndPrefetch(Language lang, Calendar day,
+      boolean forward) {
+    return get(lang, day, forward, true);
+  }
+
+  private static String get(Language lang, Calendar day, boolean forward,
+      boolean prefetch) {
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    String key = getMemcacheKey(lang, day, forward);
+    if (prefetch) {
+      Prefetch.adjacentWindows(key, lang, day, forward);
+    }
+    Object cached = Storage.cacheGet(syncCache, kind, key);
+    if (cached != null) {
+      return (String) cached;
+    }
+    String window = render(lang, day, forward);
+    Storage.cachePut(syncCache, key, window,
+        Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+    return window;
+  }
+
+  /**
+   * Renders and caches the windows of this day, in all the languages and both
+   * directions. If the windows reach into the next month, its events and
+   * descriptions are loaded too.
+   *
+   * @return the number of windows rendered.
+   */
+  public static int precompute(final Calendar day) {
+    Set<Language> langs = Language.getAllLanguages();
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (final Language lang : langs) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          // Each task gets its own Calendar, get() may update its fields.
+          get(lang, (Calendar) day.clone(), true);
+          get(lang, (Calendar) day.clone(), false);
+          return null;
+        }
+      });
+    }
+
+    Calendar lastDay = (Calendar) day.clone();
+    lastDay.add(Calendar.DATE, MAX_DAYS - 1);
+    if (lastDay.get(Calendar.MONTH) != day.get(Calendar.MONTH)) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          Calendar nextMonth = (Calendar) day.clone();
+          nextMonth.set(Calendar.DATE, 1);
+          nextMonth.add(Calendar.MONTH, 1);
+          Events.getEvents(nextMonth);
+          EventDescriptions.getDescriptions(
+              Language.getAllLanguagesAsMap().keySet(), nextMonth);
+          return null;
+        }
+      });
+    }
+    Parallel.invokeAll(tasks);
+    return 2 * langs.size();
+  }
+
+  /**
+   * Renders and caches the windows the agenda pages to from this one, see
+   * showPreviousEvents() and showNextEvents() in maps/scripts/main.js.
+   */
+  public static void prefetchAdjacent(Language lang, Calendar day,
+      boolean forward) {
+    Event first = null;
+    Event last = null;
+    for (Event e : select(lang, day, forward)) {
+      if (e.getDescription() != null) {
+        if (first == null) {
+          first = e;
+        }
+        last = e;
+      }
+    }
+    Calendar previous = (Calendar) day.clone();
+    Calendar next = (Calendar) day.clone();
+    if (first != null) {
+      previous = (Calendar) first.getCalendar().clone();
+      previous.add(Calendar.DATE, -1);
+      next = (Calendar) last.getCalendar().clone();
+      next.add(Calendar.DATE, 1);
+    } else if (forward) {
+      previous.add(Calendar.DATE, -1);
+      next.add(Calendar.DATE, MAX_DAYS);
+    } else {
+      previous.add(Calendar.DATE, -MAX_DAYS);
+      next.add(Calendar.DATE, 1);
+    }
+    get(lang, previous, false);
+    get(lang, next, true);
+  }
+
+  /** Makes all the windows render again, on all instances. */
+  public static void invalidate() {
+    GENERATION.increment();
+  }
+
+  /**
+   * @return the current generation of the windows, part of the memcache keys
+   *         of anything rendered from events, descriptions and languages.
+   *         Changes made on another instance are seen within
+   *         SharedCounter.CHECK_MILLIS.
+   */
+  static long getGeneration() {
+    return GENERATION.get();
+  }
+
+  /**
+   * @return the key of the window in memcache, which changes when the window
+   *         has to be rendered again.
+   */
+  private static String getMemcacheKey(Language lang, Calendar day,
+      boolean forward) {
+    return String.format("%s-%d-%s-%s-%s", kind, getGeneration(),
+        lang.getCode(), new SimpleDateFormat("yyyy-MM-dd").format(day.getTime()),
+        forward ? "f" : "b");
+  }
+
+  private static String render(Language lang, Calendar day, boolean forward) {
+    return toJson(select(lang, day, forward));
+  }
+
+  /**
+   * @return the events of the window, some of which may have no description
+   *         in this language.
+   */
+  private static ArrayDeque<Event> select(Language lang, Calendar day,
+      boolean forward) {
+    Calendar start_date = (Calendar) day.clone();
+    // Set the time at midnight, so that the below query stays the same.
+    start_date.set(Calendar.MILLISECOND, 0);
+    start_date.set(Calendar.SECOND, 0);
+    start_date.set(Calendar.MINUTE, 0);
+    start_date.set(Calendar.HOUR_OF_DAY, 0);
+    // Exclusive.
+    Calendar end_date = (Calendar)start_date.clone();
+    if (forward) {
+      end_date.add(Calendar.DATE, MAX_DAYS);
+    } else {
+      start_date.add(Calendar.DATE, 1 - MAX_DAYS);
+      end_date.add(Calendar.DATE, 1);
+    }
+
+    ArrayDeque<Event> eventList = new ArrayDeque<>();
+    // Load the events of the month of start_date.
+    Events events = Events.getEvents(start_date, lang.getCode());
+    for (Event e : events.getSortedEvents()) {
+      if (e.getCalendar().compareTo(start_date) >= 0 && e.getCalendar().compareTo(end_date) < 0) {
+        eventList.addLast(e);
+      }
+    }
+    // If necessary, load the events of the next month.
+    if (start_date.get(Calendar.MONTH) != end_date.get(Calendar.MONTH) &&
+            (!forward || eventList.size() < MAX_EVENTS)) {
+      events = Events.getEvents(end_date, lang.getCode());
+      for (Event e : events.getSortedEvents()) {
+        if (e.getCalendar().compareTo(start_date) >= 0 && e.getCalendar().compareTo(end_date) < 0) {
+          eventList.addLast(e);
+        }
+      }
+    }
+    while (eventList.size() > MAX_EVENTS) {
+      if (forward) {
+        eventList.removeLast();
+      } else {
+        eventList.removeFirst();
+      }
+    }
+    return eventList;
+  }
+
+  private static String toJson(ArrayDeque<Event> eventList) {
+    StringBuilder response = new StringBuilder();
+    response.append("{ \"events\": [");
+    for (Event e : eventList) {
+      EventDescription d = e.getDescription();
+      if (d != null) {
+        appendEvent(response, e, d);
+        response.append(",");
+      }
+    }
+    if (response.charAt(response.length() - 1) == ',') {
+      response.deleteCharAt(response.length() - 1); // remove the last ,
+    }
+
+    response.append("]}");
+    return response.toString();
+  }
+
+  /** Appends the event as a JSON object. */
+  static void appendEvent(StringBuilder response, Event e, EventDescription d) {
+    response.append("{");
+    response.append("\"date\":\"").append(dateToString(e.getDate())).append("\",");
+    response.append("\"title\":\"").append(Utils.toUnicode(d.getTitle())).append("\",");
+    response.append("\"description\":\"").append(Utils.toUnicode(d.getDesc())).append("\",");
+    response.append("\"location\":\"").append(Utils.toUnicode(e.getLocation())).append("\",");
+    response.append("\"transit\":\"").append(Utils.toUnicode(e.getTransit())).append("\",");
+    response.append("\"url\":\"").append(Utils.toUnicode(e.getUrl())).append("\"");
+    response.append("}");
+  }
+
+  public static String dateToString(Date d) {
+    Calendar c = Calendar.getInstance();
+    c.setTime(d);
+    return new StringBuilder().append(c.get(Calendar.MONTH) + 1).append('/')
+            .append(c.get(Calendar.DAY_OF_MONTH)).append('/').append(c.get(Calendar.YEAR))
+            .toString();
+  }
+}
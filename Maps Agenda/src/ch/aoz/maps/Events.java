@@ -83,7 +83,9 @@ public class Events implements java.io.Serializable {
     return String.format("%04d-%02d", c.get(Calendar.YEAR), c.get(Calendar.MONTH));
   }
   private static String getMemcacheKey(Calendar c) {
-    return String.format("%s-%s", entityKind, getKey(c));
+    // Suffixed since locations and transits are stored normalized, so that
+    // events cached before are loaded, and normalized, again.
+    return String.format("%s2-%s", entityKind, getKey(c));
   }
   
   /** 
@@ -92,12 +94,13 @@ public class Events implements java.io.Serializable {
    */
   public static Events getEvents(Calendar c) {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    if (syncCache.contains(getMemcacheKey(c))) {
-      return (Events)syncCache.get(getMemcacheKey(c));
+    Object cached = Storage.cacheGet(syncCache, entityKind, getMemcacheKey(c));
+    if (cached != null) {
+      return (Events) cached;
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      Entity e = datastore.get(KeyFactory.createKey(entityKind, getKey(c)));
+      Entity e = Storage.get(datastore, KeyFactory.createKey(entityKind, getKey(c)));
       return new Events(c, e);
     } catch (EntityNotFoundException e) {
       return new Events(c);
@@ -124,7 +127,14 @@ public class Events implements java.io.Serializable {
    */
   public void loadDescriptions(String lang) {
     if (events.isEmpty()) return;
-    EventDescriptions descriptions = EventDescriptions.getDescriptions(lang, this.calendar);
+    loadDescriptions(EventDescriptions.getDescriptions(lang, this.calendar));
+  }
+
+  /**
+   * Same as loadDescriptions(lang), with descriptions that were already
+   * fetched, e.g. by a batch load of several languages.
+   */
+  public void loadDescriptions(EventDescriptions descriptions) {
     for (Event e : events) {
       EventDescription description = descriptions.getDescription(e.getKey());
       // getDescription returns null if no description is there, keeping the
@@ -204,13 +214,16 @@ public class Events implements java.io.Serializable {
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      datastore.put(this.toEntity());
+      Storage.put(datastore, this.toEntity());
     } catch (Exception ex) {
       ex.printStackTrace();
       debug = "exception (datastore null? " + (datastore == null) + "): " + ex.toString();
       return false;
     }
     addToCache();
+    EventWindows.invalidate();
+    // Not checked: the counts of the calendar are off, the events are stored.
+    CalendarIndex.update(this);
     return true;
   }
   
@@ -235,10 +248,12 @@ public class Events implements java.io.Serializable {
   /** 
    * Extracts an Event from the packed representation in the database.
    * 
+   * Package-private for the benchmarks in tools.
+   *
    * @param packed string representation of a Event in the database.
    * @return a fully constructed Event
    */
-  private static Event extractEvent(String keyStr, Calendar c, String packed) {
+  static Event extractEvent(String keyStr, Calendar c, String packed) {
     String[] fields = packed.split("" + RS);
     if (fields.length < 4)
       return null;
@@ -263,10 +278,12 @@ public class Events implements java.io.Serializable {
   /**
    * Packs the provided Event into its database representation.
    * 
+   * Package-private for the benchmarks in tools.
+   *
    * @param e the event to pack in its database representation.
    * @return the packed representation.
    */
-  private static String packEvent(Event e) {
+  static String packEvent(Event e) {
     StringBuilder s = new StringBuilder();
     s.append(e.getLocation() + RS);
     s.append(e.getTransit() + RS);
@@ -282,7 +299,7 @@ public class Events implements java.io.Serializable {
 
   private void addToCache() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    syncCache.put(getMemcacheKey(this.calendar), this);    
+    Storage.cachePut(syncCache, getMemcacheKey(this.calendar), this);    
   }
   
   /** Only setters and getters below. */  
@@ -0,0 +1,113 @@
+package ch.aoz.maps;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, in-process cache of rendered fragments, e.g. the rows of a
+ * newsletter. Entries are keyed by a hash of everything the fragment was
+ * rendered from (see contentKey()), so an entry never needs to be
+ * invalidated: when an event changes, its key changes too and the stale
+ * fragment is eventually evicted as the least recently used one.
+ *
+ * The cache is local to the instance and lost when the instance goes away.
+ * That's fine, it only saves work when the same content is rendered again.
+ * Threadsafe.
+ */
+public class FragmentCache<V> {
+  private final int maxEntries;
+  private final LinkedHashMap<String, V> entries;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param maxEntries number of fragments kept before the least recently used
+   *        ones are evicted.
+   */
+  public FragmentCache(final int maxEntries) {
+    this.maxEntries = maxEntries;
+    this.entries = new LinkedHashMap<String, V>(16, 0.75f, true /* access order */) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+        return size() > FragmentCache.this.maxEntries;
+      }
+    };
+  }
+
+  /** @return the cached fragment, or null if there is none for this key. */
+  public V get(String key) {
+    V value;
+    synchronized (entries) {
+      value = entries.get(key);
+    }
+    (value == null ? misses : hits).incrementAndGet();
+    return value;
+  }
+
+  public void put(String key, V value) {
+    synchronized (entries) {
+      entries.put(key, value);
+    }
+  }
+
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  /**
+   * Builds a cache key from all the values a fragment depends on. The parts
+   * are hashed with their lengths, so that ("ab", "c") and ("a", "bc") give
+   * different keys. Null parts are allowed and differ from empty ones.
+   */
+  public static String contentKey(String... parts) {
+    MessageDigest sha1;
+    try {
+      sha1 = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JRE has SHA-1.
+      throw new IllegalStateException(e);
+    }
+    for (String part : parts) {
+      if (part == null) {
+        sha1.update(NULL_PART);
+        continue;
+      }
+      byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+      sha1.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+      sha1.update((byte) ':');
+      sha1.update(bytes);
+    }
+    byte[] digest = sha1.digest();
+    char[] hex = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; i++) {
+      hex[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+      hex[2 * i + 1] = HEX[digest[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+  private static final byte[] NULL_PART = { '-', ':' };
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
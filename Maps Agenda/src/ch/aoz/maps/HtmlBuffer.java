@@ -0,0 +1,156 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable UTF-8 byte buffer that HTML is rendered into. Text is encoded and
+ * escaped in a single pass, directly into the buffer.
+ * NOTE: *not* threadsafe. Meant to be reset and reused by a single thread.
+ */
+public class HtmlBuffer {
+  private byte[] buf;
+  private int len;
+
+  public HtmlBuffer() {
+    this(16 * 1024);
+  }
+
+  public HtmlBuffer(int capacity) {
+    buf = new byte[capacity];
+    len = 0;
+  }
+
+  /** Empties the buffer, keeping the memory that was allocated for it. */
+  public void reset() {
+    len = 0;
+  }
+
+  /** @return the number of bytes written so far. */
+  public int size() {
+    return len;
+  }
+
+  /** Appends pre-encoded bytes as they are. */
+  public HtmlBuffer raw(byte[] bytes) {
+    return raw(bytes, 0, bytes.length);
+  }
+
+  /** Appends a range of pre-encoded bytes as they are. */
+  public HtmlBuffer raw(byte[] bytes, int offset, int length) {
+    ensure(length);
+    System.arraycopy(bytes, offset, buf, len, length);
+    len += length;
+    return this;
+  }
+
+  /** Appends s, UTF-8 encoded but not escaped. */
+  public HtmlBuffer raw(String s) {
+    return append(s, false, false);
+  }
+
+  /** Appends s escaped to be used as text in an HTML element. */
+  public HtmlBuffer text(String s) {
+    return append(s, true, false);
+  }
+
+  /** Appends s escaped to be used as the value of an HTML attribute. */
+  public HtmlBuffer attribute(String s) {
+    return append(s, true, true);
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buf, len);
+  }
+
+  /** @return a copy of the bytes written since size() was from. */
+  public byte[] toByteArray(int from) {
+    return Arrays.copyOfRange(buf, from, len);
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buf, 0, len);
+  }
+
+  @Override
+  public String toString() {
+    return new String(buf, 0, len, StandardCharsets.UTF_8);
+  }
+
+  private HtmlBuffer append(String s, boolean escapeText, boolean escapeQuotes) {
+    int n = s.length();
+    // Worst case is 6 bytes per char, for &quot;.
+    ensure(n * 6);
+    byte[] b = buf;
+    int pos = len;
+    for (int i = 0; i < n; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        if (escapeText) {
+          switch (c) {
+          case '&':
+            pos = put(b, pos, AMP);
+            continue;
+          case '<':
+            pos = put(b, pos, LT);
+            continue;
+          case '>':
+            pos = put(b, pos, GT);
+            continue;
+          case '"':
+            if (escapeQuotes) {
+              pos = put(b, pos, QUOT);
+              continue;
+            }
+            break;
+          case '\'':
+            if (escapeQuotes) {
+              pos = put(b, pos, APOS);
+              continue;
+            }
+            break;
+          }
+        }
+        b[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        b[pos++] = (byte) (0xc0 | (c >> 6));
+        b[pos++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < n
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, s.charAt(++i));
+        b[pos++] = (byte) (0xf0 | (cp >> 18));
+        b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        b[pos++] = (byte) (0x80 | (cp & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogate, same replacement as String.getBytes().
+        b[pos++] = '?';
+      } else {
+        b[pos++] = (byte) (0xe0 | (c >> 12));
+        b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        b[pos++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    len = pos;
+    return this;
+  }
+
+  private static int put(byte[] b, int pos, byte[] entity) {
+    System.arraycopy(entity, 0, b, pos, entity.length);
+    return pos + entity.length;
+  }
+
+  private void ensure(int extra) {
+    if (len + extra > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+  }
+
+  private static final byte[] AMP = Escaping.AMP.getBytes(StandardCharsets.UTF_8);
+  private static final byte[] LT = Escaping.LT.getBytes(StandardCharsets.UTF_8);
+  private static final byte[] GT = Escaping.GT.getBytes(StandardCharsets.UTF_8);
+  private static final byte[] QUOT = Escaping.QUOT.getBytes(StandardCharsets.UTF_8);
+  private static final byte[] APOS = Escaping.APOS.getBytes(StandardCharsets.UTF_8);
+}
@@ -0,0 +1,95 @@
+package ch.aoz.maps;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A piece of HTML with holes, compiled once into UTF-8 encoded fragments.
+ *
+ * Holes are written {{kind:name}}, where kind tells how the value is escaped:
+ *   - text: HTML text, see HtmlBuffer.text().
+ *   - attr: value of an HTML attribute, see HtmlBuffer.attribute().
+ *   - raw:  copied as is. Only for trusted values, e.g. phrases or CSS.
+ * The name only documents the hole. Values are provided by position.
+ *
+ * Templates are immutable and can be shared between threads.
+ */
+public class HtmlTemplate {
+  private enum Slot { TEXT, ATTR, RAW }
+
+  /** fragments.length == slots.length + 1 */
+  private final byte[][] fragments;
+  private final Slot[] slots;
+
+  private HtmlTemplate(byte[][] fragments, Slot[] slots) {
+    this.fragments = fragments;
+    this.slots = slots;
+  }
+
+  /**
+   * Compiles the template.
+   *
+   * @throws IllegalArgumentException if a hole is malformed.
+   */
+  public static HtmlTemplate compile(String template) {
+    List<byte[]> fragments = new ArrayList<byte[]>();
+    List<Slot> slots = new ArrayList<Slot>();
+    int start = 0;
+    int open;
+    while ((open = template.indexOf("{{", start)) >= 0) {
+      int close = template.indexOf("}}", open);
+      int colon = template.indexOf(':', open);
+      if (close < 0 || colon < 0 || colon > close) {
+        throw new IllegalArgumentException("Malformed hole at " + open + ": " + template);
+      }
+      fragments.add(template.substring(start, open).getBytes(StandardCharsets.UTF_8));
+      String kind = template.substring(open + 2, colon);
+      switch (kind) {
+      case "text":
+        slots.add(Slot.TEXT);
+        break;
+      case "attr":
+        slots.add(Slot.ATTR);
+        break;
+      case "raw":
+        slots.add(Slot.RAW);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown hole kind: " + kind);
+      }
+      start = close + 2;
+    }
+    fragments.add(template.substring(start).getBytes(StandardCharsets.UTF_8));
+    return new HtmlTemplate(fragments.toArray(new byte[fragments.size()][]),
+        slots.toArray(new Slot[slots.size()]));
+  }
+
+  /**
+   * Writes the template to out, filling the holes with values in order.
+   *
+   * @throws IllegalArgumentException if there are not exactly as many values
+   *         as holes.
+   */
+  public void render(HtmlBuffer out, String... values) {
+    if (values.length != slots.length) {
+      throw new IllegalArgumentException("Expected " + slots.length
+          + " values, got " + values.length);
+    }
+    for (int i = 0; i < slots.length; i++) {
+      out.raw(fragments[i]);
+      switch (slots[i]) {
+      case TEXT:
+        out.text(values[i]);
+        break;
+      case ATTR:
+        out.attribute(values[i]);
+        break;
+      case RAW:
+        out.raw(values[i]);
+        break;
+      }
+    }
+    out.raw(fragments[slots.length]);
+  }
+}
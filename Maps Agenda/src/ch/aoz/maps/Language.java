@@ -1,5 +1,7 @@
 package ch.aoz.maps;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -59,6 +61,42 @@ public class Language implements Comparable<Language>, java.io.Serializable {
    */
   private final boolean ok;
 
+  /**
+   * Derived from the fields above once, rather than on each call. Not
+   * serialized, see readObject().
+   */
+  private transient int sortKey;
+  private transient String standardizedCode;
+  private transient String formatSupplement;
+
+  /**
+   * MAPS use a manually predefined ordering of languages. The order needs to
+   * be kept consistent on exports for the XML templates to work.
+   */
+  private static final String[] MANUAL_ORDERING = {
+    "de", "al", "ar", "bo", "en", "fr", "it", "ma",
+    "pe", "po", "ru", "so", "es", "ta", "ti", "tu"
+  };
+  private static final Map<String, Integer> SORT_KEYS =
+      new HashMap<String, Integer>();
+  static {
+    for (int i = 0; i < MANUAL_ORDERING.length; i++) {
+      SORT_KEYS.put(MANUAL_ORDERING[i], i);
+    }
+  }
+
+  /** See getStandardizedLanguageCode(). */
+  private static final Map<String, String> STANDARDIZED_CODES =
+      new HashMap<String, String>();
+  static {
+    STANDARDIZED_CODES.put("al", "sq");
+    STANDARDIZED_CODES.put("bo", "sh");
+    STANDARDIZED_CODES.put("ma", "cjk");
+    STANDARDIZED_CODES.put("pe", "fa");
+    STANDARDIZED_CODES.put("po", "pt");
+    STANDARDIZED_CODES.put("tu", "tr");
+  }
+
   public Language(String code, String name, String germanName,
       List<String> abbreviatedDays, boolean rightToLeft, boolean inAgenda,
       boolean hasSpecificFormat) {
@@ -71,6 +109,7 @@ public class Language implements Comparable<Language>, java.io.Serializable {
     this.hasSpecificFormat = hasSpecificFormat;
     this.ok = (code != null) && (name != null) && (germanName != null)
         && abbreviatedDays.size() == 7 && code.length() == 2;
+    computeDerivedFields();
   }
 
   public Language(JSONObject o) throws JSONException {
@@ -86,6 +125,21 @@ public class Language implements Comparable<Language>, java.io.Serializable {
     this.hasSpecificFormat = o.getBoolean("specificFormat");
     this.ok = (code != null) && (name != null) && (germanName != null)
         && abbreviatedDays.size() == 7 && code.length() == 2;
+    computeDerivedFields();
+  }
+
+  private void computeDerivedFields() {
+    Integer key = SORT_KEYS.get(code);
+    sortKey = (key != null ? key : Integer.MAX_VALUE);
+    String standardized = STANDARDIZED_CODES.get(code);
+    standardizedCode = (standardized != null ? standardized : code);
+    formatSupplement = hasSpecificFormat ? "_" + standardizedCode : "";
+  }
+
+  private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    computeDerivedFields();
   }
 
   public static Set<Language> getAllLanguages() {
@@ -134,19 +188,7 @@ public class Language implements Comparable<Language>, java.io.Serializable {
    * @return the standardized language code for the language.
    */
   public String getStandardizedLanguageCode() {
-    Map<String, String> mapping = new HashMap<String, String>();
-    mapping.put("al", "sq");
-    mapping.put("bo", "sh");
-    mapping.put("ma", "cjk");
-    mapping.put("pe", "fa");
-    mapping.put("po", "pt");
-    mapping.put("tu", "tr");
-
-    if (mapping.containsKey(code)) {
-      return mapping.get(code);
-    } else {
-      return code;
-    }
+    return standardizedCode;
   }
 
   /**
@@ -226,58 +268,24 @@ public class Language implements Comparable<Language>, java.io.Serializable {
    *         the empty string otherwise
    */
   public String getXMLFormatSupplement() {
-    if (hasSpecificFormat()) {
-      return new String("_" + getStandardizedLanguageCode());
-    } else {
-      return new String();
-    }
+    return formatSupplement;
   }
 
   /**
    * MAPS use a manually predefined ordering of languages. The order needs to be
-   * kept consistent on exports for the XML templates to work.
+   * kept consistent on exports for the XML templates to work. Languages that
+   * are not in the manual ordering come last, ordered by code.
    * 
    * @return the ordering between the two elements
    */
   @Override
   public int compareTo(Language o) {
-    if (this.getCode() == o.getCode()) {
-      return 0;
+    if (this.sortKey != o.sortKey) {
+      return this.sortKey < o.sortKey ? -1 : 1;
     }
-
-    // The manual ordering.
-    Map<String, Integer> manualOrdering = new HashMap<String, Integer>();
-    manualOrdering.put("de", 0);
-    manualOrdering.put("al", 1);
-    manualOrdering.put("ar", 2);
-    manualOrdering.put("bo", 3);
-    manualOrdering.put("en", 4);
-    manualOrdering.put("fr", 5);
-    manualOrdering.put("it", 6);
-    manualOrdering.put("ma", 7);
-    manualOrdering.put("pe", 8);
-    manualOrdering.put("po", 9);
-    manualOrdering.put("ru", 10);
-    manualOrdering.put("so", 11);
-    manualOrdering.put("es", 12);
-    manualOrdering.put("ta", 13);
-    manualOrdering.put("ti", 14);
-    manualOrdering.put("tu", 15);
-
-    Integer thisLang;
-    if (manualOrdering.containsKey(this.getCode())) {
-      thisLang = manualOrdering.get(this.getCode());
-    } else {
-      thisLang = Integer.MAX_VALUE;
+    if (this.code == null || o.code == null) {
+      return this.code == o.code ? 0 : (this.code == null ? -1 : 1);
     }
-
-    Integer otherLang;
-    if (manualOrdering.containsKey(o.getCode())) {
-      otherLang = manualOrdering.get(o.getCode());
-    } else {
-      otherLang = Integer.MAX_VALUE;
-    }
-
-    return thisLang - otherLang;
+    return this.code.compareTo(o.code);
   }
 }
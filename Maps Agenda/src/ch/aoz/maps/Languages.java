@@ -1,7 +1,11 @@
 package ch.aoz.maps;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -22,10 +26,17 @@ public class Languages implements java.io.Serializable {
   private boolean isOk;
   private String debug;
 
+  /**
+   * The languages by code, rebuilt whenever languages changes. Not
+   * serialized, see readObject().
+   */
+  private transient Map<String, Language> byCode;
+
   public Languages() {
     languages = new TreeSet<Language>();
     debug = "ok";
     isOk = true;
+    index();
   }
 
   public Languages(Collection<Language> languages) {
@@ -33,6 +44,7 @@ public class Languages implements java.io.Serializable {
     for (Language l : languages) {
       this.languages.add(l);
     }
+    index();
   }
 
   private Languages(Entity entity) {
@@ -46,21 +58,36 @@ public class Languages implements java.io.Serializable {
     }
     debug = "ok";
     isOk = true;
+    index();
     addToCache();
   }
 
+  private void index() {
+    byCode = new HashMap<String, Language>();
+    for (Language l : languages) {
+      byCode.put(l.getCode(), l);
+    }
+  }
+
+  private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    index();
+  }
+
   /**
    * Returns the Languages object. It contains all the languages defined in the
    * application.
    */
   public static Languages GetLanguages() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    if (syncCache.contains(entityKind)) {
-      return (Languages) syncCache.get(entityKind);
+    Object cached = Storage.cacheGet(syncCache, entityKind, entityKind);
+    if (cached != null) {
+      return (Languages) cached;
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      Entity e = datastore.get(KeyFactory.createKey(entityKind, entityKind));
+      Entity e = Storage.get(datastore, KeyFactory.createKey(entityKind, entityKind));
       return new Languages(e);
     } catch (EntityNotFoundException e) {
       return new Languages();
@@ -78,6 +105,7 @@ public class Languages implements java.io.Serializable {
         return false;
     }
     langs.languages.add(l);
+    langs.index();
     return langs.addToStore();
   }
 
@@ -87,10 +115,12 @@ public class Languages implements java.io.Serializable {
     Languages langs = GetLanguages();
     if (langs == null)
       return false;
-    if (langs.languages.contains(code)) {
-      if (!langs.languages.remove(code))
+    Language l = langs.getLanguage(code);
+    if (l != null) {
+      if (!langs.languages.remove(l))
         return false;
     }
+    langs.index();
     return langs.addToStore();
   }
 
@@ -105,11 +135,12 @@ public class Languages implements java.io.Serializable {
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      datastore.put(this.toEntity());
+      Storage.put(datastore, this.toEntity());
     } catch (Exception ex) {
       return false;
     }
     addToCache();
+    EventWindows.invalidate();
     return true;
   }
 
@@ -166,7 +197,7 @@ public class Languages implements java.io.Serializable {
 
   private void addToCache() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    syncCache.put(entityKind, this);
+    Storage.cachePut(syncCache, entityKind, this);
   }
 
   /** Only setters and getters below. */
@@ -174,12 +205,9 @@ public class Languages implements java.io.Serializable {
     return languages;
   }
 
+  /** @return the language with this code, or null if there is none. */
   public Language getLanguage(String code) {
-    for (Language l : languages) {
-      if (l.getCode().equals(code))
-        return l;
-    }
-    return null;
+    return byCode.get(code);
   }
 
   public boolean isOk() {
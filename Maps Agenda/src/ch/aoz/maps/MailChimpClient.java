@@ -0,0 +1,235 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Client for the MailChimp 2.0 API.
+ *
+ * - Connections are kept alive and reused: responses are read to the end and
+ *   the connection is never disconnect()ed, which lets the JDK (or URLFetch on
+ *   App Engine) pool them.
+ * - Connect and read timeouts are always set.
+ * - Failed calls are retried a bounded number of times, with exponential
+ *   backoff. Only calls that MailChimp cannot have processed are retried:
+ *   failures before the request was fully sent, and 429 (too many requests)
+ *   and 503 (unavailable) answers, whatever their body. Other 5xx answers and
+ *   timeouts while waiting for the answer may come after a campaign was
+ *   created, so they are not retried.
+ * - Request bodies are streamed in fixed-length mode and responses are parsed
+ *   straight from the connection.
+ *
+ * The base URL can be overridden with the system property mailchimp.url, e.g.
+ * to point a dev server at tools/MailChimpStubServer.
+ *
+ * Threadsafe.
+ */
+public class MailChimpClient {
+  public static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+  public static final int DEFAULT_READ_TIMEOUT_MS = 30000;
+  public static final int DEFAULT_MAX_ATTEMPTS = 3;
+  public static final int DEFAULT_BACKOFF_MS = 500;
+
+  private final String baseUrl;
+  private final int connectTimeoutMs;
+  private final int readTimeoutMs;
+  private final int maxAttempts;
+  private final int backoffMs;
+  private final Random random = new Random();
+
+  /**
+   * @param baseUrl URL the API methods are relative to, ending with a slash.
+   * @param connectTimeoutMs timeout for establishing a connection.
+   * @param readTimeoutMs timeout for each read of the response.
+   * @param maxAttempts how many times a call is tried at most, >= 1.
+   * @param backoffMs wait before the first retry. Doubles for each retry.
+   */
+  public MailChimpClient(String baseUrl, int connectTimeoutMs,
+      int readTimeoutMs, int maxAttempts, int backoffMs) {
+    this.baseUrl = baseUrl;
+    this.connectTimeoutMs = connectTimeoutMs;
+    this.readTimeoutMs = readTimeoutMs;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.backoffMs = backoffMs;
+  }
+
+  public MailChimpClient(String baseUrl) {
+    this(baseUrl, DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS,
+        DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MS);
+  }
+
+  /**
+   * Returns a client for the data center of the API key, e.g. us3 for
+   * abc-us3, or for the URL in the system property mailchimp.url if set.
+   */
+  public static MailChimpClient forApiKey(String apiKey) {
+    String url = System.getProperty("mailchimp.url");
+    if (url == null || url.isEmpty()) {
+      String[] apiKeyFields = apiKey.split("-");
+      String dataCenter = apiKeyFields.length > 1 ? apiKeyFields[1] : "us1";
+      url = "https://" + dataCenter + ".api.mailchimp.com/2.0/";
+    }
+    return new MailChimpClient(url);
+  }
+
+  /** Answer of MailChimp to a call. */
+  public static class Response {
+    private final int httpStatus;
+    private final JSONObject body;
+
+    Response(int httpStatus, JSONObject body) {
+      this.httpStatus = httpStatus;
+      this.body = body;
+    }
+
+    public int getHttpStatus() {
+      return httpStatus;
+    }
+
+    /**
+     * The answer of MailChimp. Errors have the fields status ("error"), name
+     * and error.
+     */
+    public JSONObject getBody() {
+      return body;
+    }
+
+    public boolean isError() {
+      return httpStatus >= 400 || "error".equals(body.optString("status"));
+    }
+  }
+
+  /**
+   * Calls an API method and waits for its answer.
+   *
+   * @param method API method, e.g. campaigns/create.json.
+   * @throws IOException if MailChimp could not be reached, or didn't answer
+   *         with JSON, after all the attempts.
+   */
+  public Response call(String method, JSONObject request) throws IOException {
+    byte[] body = request.toString().getBytes(StandardCharsets.UTF_8);
+    URL url = new URL(baseUrl + method);
+    for (int attempt = 1; ; attempt++) {
+      Attempt a = new Attempt();
+      try {
+        Response response = send(url, body, a);
+        if (attempt < maxAttempts && isRetryable(response.getHttpStatus())) {
+          sleep(attempt);
+          continue;
+        }
+        return response;
+      } catch (IOException e) {
+        if ((a.sent && !a.rejected) || attempt >= maxAttempts) {
+          throw e;
+        }
+        sleep(attempt);
+      }
+    }
+  }
+
+  /** Same as call(), as a task, e.g. for Parallel.invokeAll(). */
+  public Callable<Response> newCall(final String method,
+      final JSONObject request) {
+    return new Callable<Response>() {
+      @Override
+      public Response call() throws IOException {
+        return MailChimpClient.this.call(method, request);
+      }
+    };
+  }
+
+  /**
+   * Same as call(), on the provided executor. On App Engine the executor
+   * must use ThreadManager threads, see Parallel.
+   */
+  public Future<Response> callAsync(ExecutorService executor, String method,
+      JSONObject request) {
+    return executor.submit(newCall(method, request));
+  }
+
+  /** State of a single attempt. */
+  private static class Attempt {
+    /** Whether the request was fully written to the connection. */
+    boolean sent = false;
+    /** Whether MailChimp answered that it didn't process the request. */
+    boolean rejected = false;
+  }
+
+  private Response send(URL url, byte[] body, Attempt attempt)
+      throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setConnectTimeout(connectTimeoutMs);
+    connection.setReadTimeout(readTimeoutMs);
+    connection.setRequestProperty("Content-Type",
+        "application/json; charset=utf-8");
+    connection.setDoOutput(true);
+    connection.setUseCaches(false);
+    connection.setFixedLengthStreamingMode(body.length);
+
+    OutputStream out = connection.getOutputStream();
+    try {
+      out.write(body);
+    } finally {
+      out.close();
+    }
+    attempt.sent = true;
+
+    int status = connection.getResponseCode();
+    attempt.rejected = isRetryable(status);
+    // MailChimp answers errors with a JSON body and a 4xx/5xx status.
+    InputStream in = status >= 400
+        ? connection.getErrorStream() : connection.getInputStream();
+    if (in == null) {
+      throw new IOException("Empty response from MailChimp, HTTP status " + status);
+    }
+    Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+    try {
+      JSONObject json;
+      try {
+        json = new JSONObject(new JSONTokener(reader));
+      } catch (JSONException e) {
+        throw new IOException("Invalid response from MailChimp, HTTP status "
+            + status + ": " + e.getMessage());
+      }
+      // Drain whatever is left so that the connection can be reused.
+      while (reader.read() >= 0) {
+      }
+      return new Response(status, json);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static boolean isRetryable(int httpStatus) {
+    return httpStatus == 429 || httpStatus == 503;
+  }
+
+  private void sleep(int attempt) throws IOException {
+    long wait = (long) backoffMs << (attempt - 1);
+    // Up to 50% of jitter, so that parallel calls don't retry in lock step.
+    synchronized (random) {
+      wait += (long) (wait * 0.5 * random.nextDouble());
+    }
+    try {
+      Thread.sleep(wait);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to retry", e);
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs the scheduled jobs of cron.xml, selected by the type parameter.
+ *
+ * rollover: renders the event windows of the next day shortly before
+ * midnight in Zurich, so that the first visitors of the day don't wait for
+ * them. See EventWindows.precompute().
+ */
+@SuppressWarnings("serial")
+public class Maps_AdminCronServlet extends HttpServlet {
+  private static final Logger logger =
+      Logger.getLogger(Maps_AdminCronServlet.class.getName());
+
+  /** Time zone of the visitors, and of the schedules of cron.xml. */
+  private static final TimeZone zurich = TimeZone.getTimeZone("Europe/Zurich");
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    String type = req.getParameter("type");
+    if (type == null) {
+      type = "";
+    }
+    switch (type) {
+    case "rollover":
+      long start = System.currentTimeMillis();
+      Calendar inZurich = Calendar.getInstance(zurich);
+      inZurich.add(Calendar.DATE, 1);
+      // The date of tomorrow in Zurich, in the time zone of the app, like the
+      // dates parsed from the requests of main.js.
+      Calendar tomorrow = Calendar.getInstance();
+      tomorrow.clear();
+      tomorrow.set(inZurich.get(Calendar.YEAR), inZurich.get(Calendar.MONTH),
+          inZurich.get(Calendar.DATE));
+      int windows = EventWindows.precompute(tomorrow);
+      logger.info("Rendered " + windows + " event windows of "
+          + EventWindows.dateToString(tomorrow.getTime()) + " in "
+          + (System.currentTimeMillis() - start) + "ms");
+      resp.setStatus(HttpServletResponse.SC_OK);
+      break;
+    default:
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown type: " + type);
+    }
+  }
+}
@@ -1,20 +1,12 @@
 package ch.aoz.maps;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -29,6 +21,10 @@ public class Maps_AdminDataServlet extends HttpServlet {
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse resp)
       throws IOException {
+    if ("emails".equals(req.getParameter("type"))) {
+      writeEmails(req, resp);
+      return;
+    }
     String response = null;
     switch (req.getParameter("type")) {
     case "languages":
@@ -50,6 +46,9 @@ public class Maps_AdminDataServlet extends HttpServlet {
     case "campaign":
       response = createCampaign(req);
       break;
+    case "campaign_status":
+      response = getCampaignStatus(req.getParameter("id"));
+      break;
     case "mailchimp_credentials":
       response = getMailChimpCredentials();
       break;
@@ -119,6 +118,7 @@ public class Maps_AdminDataServlet extends HttpServlet {
     month.set(Calendar.DATE, 1);
 
     Events events = Events.getEvents(month, lang.getCode());
+    Prefetch.adjacentMonths(lang, month);
 
     JSONObject json = new JSONObject();
     for (Event e : events.getSortedEvents()) {
@@ -165,23 +165,13 @@ public class Maps_AdminDataServlet extends HttpServlet {
     StringBuilder response = new StringBuilder();
     response.append("{ \"newsletters\": {");
 
-    Set<Language> langs = Language.getAllLanguages();
-    Events eventsDe = Events.getEvents(date, "de");
     String baseUrl = "localhost".equals(req.getServerName()) ? "http://localhost:8888"
         : "http://www.maps-agenda.ch";
-
-    for (Language l : langs) {
-      Events eventsLang = null;
-      if (!l.getCode().equals("de")) {
-        eventsLang = eventsDe.clone();
-        eventsLang.loadDescriptions(l.getCode());
-      }
-      NewsletterExport exporter = new NewsletterExport(eventsDe, eventsLang,
-          l.getCode(), baseUrl, date.get(Calendar.YEAR),
-          date.get(Calendar.MONTH), null /* subscriber, none for public render. */);
-
-      response.append("\"" + l.getCode() + "\":\""
-          + Utils.toUnicode(exporter.render()) + "\",");
+    Map<String, String> newsletters = new Newsletters(date, baseUrl)
+        .renderAll(NewsletterExport.BACKGROUND_COLOR_PLACEHOLDER);
+    for (Map.Entry<String, String> newsletter : newsletters.entrySet()) {
+      response.append("\"" + newsletter.getKey() + "\":\""
+          + Utils.toUnicode(newsletter.getValue()) + "\",");
     }
     if (response.charAt(response.length() - 1) == ',') {
       response.deleteCharAt(response.length() - 1); // remove the last ,
@@ -190,62 +180,46 @@ public class Maps_AdminDataServlet extends HttpServlet {
     return response.toString();
   }
 
-  public Map<String, String> generateNewslettersList(Calendar date,
-      String color, String serverName) {
-    Map<String, String> response = new HashMap<String, String>();
-    Set<Language> langs = Language.getAllLanguages();
-
-    Events eventsDe = Events.getEvents(date, "de");
-    String baseUrl = "localhost".equals(serverName) ? "http://localhost:8888"
-        : "http://www.maps-agenda.ch";
+  /** Submits the creation of the campaigns of a month, see CampaignJob. */
+  public String createCampaign(HttpServletRequest req) {
+    String month = req.getParameter("month");
+    if (month == null) {
+      month = new SimpleDateFormat("yyyy-MM").format(Calendar.getInstance().getTime());
+    }
+    String background_color = req.getParameter("bgcolor");
+    if (background_color == null) {
+      background_color = BackgroundColor.fetchFromStore().getColor();
+    }
 
-    for (Language l : langs) {
-      Events eventsLang = null;
-      if (!l.getCode().equals("de")) {
-        eventsLang = eventsDe.clone();
-        eventsLang.loadDescriptions(l.getCode());
-      }
-      NewsletterExport exporter = new NewsletterExport(eventsDe, eventsLang,
-          l.getCode(), baseUrl, date.get(Calendar.YEAR),
-          date.get(Calendar.MONTH), null /* subscriber, none for public render. */);
-
-      response.put(
-          l.getCode(),
-          exporter.render().replaceAll(Pattern.quote("{{background_color}}"),
-              color));
+    CampaignJob job = new CampaignJob(month, background_color,
+        req.getServerName());
+    if (!job.submit()) {
+      JSONObject response = job.toJSON();
+      response.put("error", "Failed to submit the job.");
+      return response.toString();
     }
-    return response;
+    return job.toJSON().toString();
   }
 
-  public String generateNewsletters(Calendar date, String color,
-      String serverName) {
-    Map<String, String> newsletters = generateNewslettersList(date, color,
-        serverName);
-    StringBuilder builder = new StringBuilder();
-    builder.append("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Transitional"
-        + "//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-transition"
-        + "al.dtd\">\n");
-    builder.append("*|");
-    for (String code : newsletters.keySet()) {
-      if (!code.equals("en")) {
-        builder.append("IF:LANGUAGE=" + code + "|*" + newsletters.get(code)
-            + "*|ELSE");
-      }
+  private String getCampaignStatus(String id) {
+    CampaignJob job = CampaignJob.fetchFromStore(id);
+    if (job == null) {
+      JSONObject response = new JSONObject();
+      response.put("status", "error");
+      response.put("error", "Unknown job: " + id);
+      return response.toString();
     }
-    builder.append(":|*" + newsletters.get("en") + "*|END:IF|*");
-    return builder.toString();
-    // return Utils.toUnicode(builder.toString());
+    return job.toJSON().toString();
   }
 
-  public String createCampaign(HttpServletRequest req) {
-    Calendar date = Calendar.getInstance();
-    String requested_date = req.getParameter("month");
-    if (requested_date != null) {
-      try {
-        date.setTime(new SimpleDateFormat("yyyy-MM").parse(requested_date));
-      } catch (Exception e) {
-      }
-    }
+  /**
+   * Streams the email newsletter of every subscriber, as "email RS html RS"
+   * records. The newsletter is rendered once per language, only the links
+   * with the subscriber hash differ from one subscriber to the next.
+   */
+  private void writeEmails(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    Calendar date = stringToMonth(req.getParameter("month"));
     // Set the time at midnight, so that the below query stays the same.
     date.set(Calendar.MILLISECOND, 0);
     date.set(Calendar.SECOND, 0);
@@ -257,69 +231,21 @@ public class Maps_AdminDataServlet extends HttpServlet {
     if (background_color == null) {
       background_color = BackgroundColor.fetchFromStore().getColor();
     }
-
-    MailChimpCredentials credentials = MailChimpCredentials.fetchFromStore();
-    JSONObject options = new JSONObject();
-    options.put("list_id", credentials.getListId());
-    options.put(
-        "subject",
-        "MAPS Agenda Newsletter "
-            + date.getDisplayName(Calendar.MONTH, Calendar.LONG, Locale.GERMAN)
-            + " " + date.get(Calendar.YEAR));
-    options.put("from_name", JSONObject.stringToValue(Phrases.getMergedPhrases("de").get("zuriAgenda").getPhrase()));
-    options.put("from_email", "maps@aoz.ch");
-    options.put("to_name", "*|NAME|*");
-    options.put("generate_text", true);
-
-    JSONObject content = new JSONObject();
-    content.put("html", JSONObject.stringToValue(generateNewsletters(date,
-        background_color, req.getServerName())));
-
-    JSONObject json = new JSONObject();
-    json.put("apikey", credentials.getApiKey());
-    json.put("type", "regular");
-    json.put("options", options);
-    json.put("content", content);
-
-    byte[] mailchimpRequest = json.toString().getBytes(StandardCharsets.UTF_8);
-    StringBuilder response = new StringBuilder();
-    HttpURLConnection connection = null;
-    try {
-      String[] apiKeyFields = credentials.getApiKey().split("-");
-      URL url = new URL("https://" + apiKeyFields[1]
-          + ".api.mailchimp.com/2.0/campaigns/create.json");
-      connection = (HttpURLConnection) url.openConnection();
-      connection.setRequestMethod("POST");
-      connection.setRequestProperty("Content-Type", "application/json");
-      connection.setRequestProperty("charset", "utf-8");
-      connection.setRequestProperty("Content-Length",
-          Integer.toString(mailchimpRequest.length));
-      connection.setDoOutput(true);
-      connection.setUseCaches(false);
-
-      DataOutputStream outStream = new DataOutputStream(
-          connection.getOutputStream());
-      outStream.write(mailchimpRequest);
-      outStream.flush();
-      outStream.close();
-
-      InputStreamReader inStream = new InputStreamReader(
-          connection.getInputStream());
-      BufferedReader reader = new BufferedReader(inStream);
-      String line;
-      while ((line = reader.readLine()) != null) {
-        response.append(line);
-        response.append('\r');
-      }
-      reader.close();
-    } catch (Exception e) {
-      return "Error while sending request to MailChimp: " + e.toString();
-    } finally {
-      if (connection != null) {
-        connection.disconnect();
-      }
+    String baseUrl = "localhost".equals(req.getServerName()) ? "http://localhost:8888"
+        : "http://www.maps-agenda.ch";
+    Map<String, Subscriber> subscribers = Subscriber.getAllSubscribers();
+    if (subscribers == null) {
+      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+          "Failed to load the subscribers.");
+      return;
     }
-    return response.toString();
+
+    Map<String, PersonalizedNewsletter> newsletters =
+        new Newsletters(date, baseUrl).renderPersonalized(background_color);
+    resp.setContentType("application/octet-stream");
+    OutputStream out = new BufferedOutputStream(resp.getOutputStream(), 64 * 1024);
+    Newsletters.writePersonalized(newsletters, subscribers.values(), out);
+    out.flush();
   }
 
   public String modifyTranslators(HttpServletRequest req) {
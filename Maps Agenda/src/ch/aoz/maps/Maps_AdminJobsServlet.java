@@ -0,0 +1,41 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs the background jobs, called by the task queue. See CampaignJob.
+ *
+ * Answers 200 even when the job fails: its outcome is stored in the job, and
+ * a retry by the task queue would not do any better. Only a job that is
+ * running elsewhere gets a 503, so that the task is retried: if that run died
+ * with its instance, a later retry runs the job again.
+ */
+@SuppressWarnings("serial")
+public class Maps_AdminJobsServlet extends HttpServlet {
+  private static final Logger logger =
+      Logger.getLogger(Maps_AdminJobsServlet.class.getName());
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    String id = req.getParameter("id");
+    CampaignJob job = CampaignJob.fetchFromStore(id);
+    if (job == null) {
+      logger.warning("Unknown job: " + id);
+    } else if (!job.run()) {
+      logger.warning("Job " + id + " was not run, its status is " + job.getStatus());
+      if (CampaignJob.RUNNING.equals(job.getStatus())) {
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        return;
+      }
+    } else {
+      logger.info("Job " + id + " finished with status " + job.getStatus());
+    }
+    resp.setStatus(HttpServletResponse.SC_OK);
+  }
+}
@@ -0,0 +1,27 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Shows the Metrics of the instance that answers, as JSON, or in the
+ * Prometheus text format with format=prometheus.
+ */
+@SuppressWarnings("serial")
+public class Maps_AdminMetricsServlet extends HttpServlet {
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    resp.setCharacterEncoding("UTF-8");
+    if ("prometheus".equals(req.getParameter("format"))) {
+      resp.setContentType("text/plain; version=0.0.4");
+      resp.getWriter().print(Metrics.toPrometheus());
+    } else {
+      resp.setContentType("application/json");
+      resp.getWriter().println(Metrics.toJson().toString());
+    }
+  }
+}
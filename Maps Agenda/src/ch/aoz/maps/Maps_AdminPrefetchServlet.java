@@ -0,0 +1,67 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs the prefetches queued by Prefetch, called by the task queue.
+ *
+ * Always answers 200: a prefetch that fails isn't worth a retry, the next
+ * click loads what it needs anyway.
+ */
+@SuppressWarnings("serial")
+public class Maps_AdminPrefetchServlet extends HttpServlet {
+  private static final Logger logger =
+      Logger.getLogger(Maps_AdminPrefetchServlet.class.getName());
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    resp.setStatus(HttpServletResponse.SC_OK);
+    Language lang = Language.GetByCode(req.getParameter("lang"));
+    String type = req.getParameter("type");
+    if (lang == null || type == null) {
+      logger.warning("Invalid prefetch: " + type + " in " + req.getParameter("lang"));
+      return;
+    }
+    switch (type) {
+    case "window":
+      Calendar day = parse("yyyy-MM-dd", req.getParameter("date"));
+      if (day != null) {
+        EventWindows.prefetchAdjacent(lang, day, req.getParameter("back") == null);
+      }
+      break;
+    case "month":
+      Calendar month = parse("yyyy-MM", req.getParameter("month"));
+      if (month != null) {
+        Prefetch.loadAdjacentMonths(lang, month);
+      }
+      break;
+    default:
+      logger.warning("Unknown prefetch: " + type);
+    }
+  }
+
+  /** @return the date, or null if there is none or it is invalid. */
+  private static Calendar parse(String format, String date) {
+    if (date == null) {
+      logger.warning("Prefetch without a date");
+      return null;
+    }
+    Calendar c = Calendar.getInstance();
+    try {
+      c.setTime(new SimpleDateFormat(format).parse(date));
+    } catch (ParseException e) {
+      logger.warning("Invalid prefetch date: " + date);
+      return null;
+    }
+    return c;
+  }
+}
@@ -0,0 +1,64 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records the instance that answers with the Java Flight Recorder for a few
+ * seconds (parameter seconds, 10 by default), and answers with the .jfr
+ * file. Open it with JDK Mission Control, or print our events with
+ *
+ *   jfr print --categories "Maps Agenda" maps.jfr
+ *
+ * See Profiling. Answers 404 unless profiling is enabled and the runtime
+ * has JFR, which the Java 7 runtime the app is deployed on doesn't.
+ */
+@SuppressWarnings("serial")
+public class Maps_AdminProfileServlet extends HttpServlet {
+  private static final Logger logger =
+      Logger.getLogger(Maps_AdminProfileServlet.class.getName());
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    if (!Profiling.isAvailable()) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND,
+          "Profiling is not available, see Profiling");
+      return;
+    }
+    int seconds = 10;
+    try {
+      if (req.getParameter("seconds") != null) {
+        seconds = Integer.parseInt(req.getParameter("seconds"));
+      }
+    } catch (NumberFormatException e) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Bad seconds");
+      return;
+    }
+    if (seconds < 1 || seconds > Profiling.MAX_SECONDS) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "seconds must be between 1 and " + Profiling.MAX_SECONDS);
+      return;
+    }
+
+    byte[] recording;
+    try {
+      recording = Profiling.record(seconds);
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Recording failed", e);
+      resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+          "Recording failed: " + e);
+      return;
+    }
+    resp.setContentType("application/octet-stream");
+    resp.setHeader("Content-Disposition", "attachment; filename=\"maps-"
+        + System.currentTimeMillis() + ".jfr\"");
+    resp.setContentLength(recording.length);
+    resp.getOutputStream().write(recording);
+  }
+}
@@ -2,19 +2,19 @@ package ch.aoz.maps;
 
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayDeque;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.http.*;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
+
 @SuppressWarnings("serial")
 public class Maps_DataServlet extends HttpServlet {
-  public static final int MAX_EVENTS = 15;
-  public static final int MAX_DAYS = 15;
+  public static final int MAX_CALENDAR_MONTHS = 12;
 
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
@@ -24,7 +24,19 @@ public class Maps_DataServlet extends HttpServlet {
       response = getLanguages();
       break;
     case "events":
-      response = getEvents(req);
+      if (req.getParameter("cursor") != null || req.getParameter("size") != null) {
+        response = getEventPage(req);
+        if (response == null) {
+          resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+          return;
+        }
+      } else {
+        response = getEvents(req.getParameter("lang"), req.getParameter("date"),
+            req.getParameter("back") == null);
+      }
+      break;
+    case "calendar":
+      response = getCalendar(req.getParameter("from"), req.getParameter("to"));
       break;
     case "phrases":
       response = getPhrases(req);
@@ -66,10 +78,9 @@ public class Maps_DataServlet extends HttpServlet {
     Map<String, Phrase> phrases = Phrases.getMergedPhrases(lang == null ? "de" : lang);
     StringBuilder response = new StringBuilder();
     response.append("{ \"phrases\": {");
-    for (String key : phrases.keySet()) {
-      Phrase p = phrases.get(key);
-      response.append("\"" + key + "\":");
-      response.append("\"" + Utils.toUnicode(p.getPhrase()) + "\",");
+    for (Map.Entry<String, Phrase> entry : phrases.entrySet()) {
+      response.append("\"" + entry.getKey() + "\":");
+      response.append("\"" + Utils.toUnicode(entry.getValue().getPhrase()) + "\",");
     }
     if (!phrases.isEmpty()) {
       // Remove the last comma.
@@ -79,90 +90,95 @@ public class Maps_DataServlet extends HttpServlet {
     return response.toString();
   }
 
-  private String getEvents(HttpServletRequest req) {
+  /**
+   * Returns a page of events, see EventPages. The first page starts at the
+   * date and back parameters, like getEvents(), and the next ones at the
+   * cursor parameter. The size parameter is the number of events per page.
+   *
+   * @return the page, or null if the cursor is invalid.
+   */
+  private String getEventPage(HttpServletRequest req) {
     Language lang = Language.GetByCode(req.getParameter("lang"));
     if (lang == null) {
-      lang = Language.GetByCode(req.getParameter("de"));
+      lang = Language.GetByCode("de");
     }
-    
-    boolean forward = (req.getParameter("back") == null);
-    Calendar start_date = Calendar.getInstance();
+    int size = EventPages.DEFAULT_SIZE;
+    try {
+      size = Integer.parseInt(req.getParameter("size"));
+    } catch (NumberFormatException e) {
+    }
+
+    String cursor = req.getParameter("cursor");
+    if (cursor != null) {
+      return EventPages.get(lang, cursor, size);
+    }
+    Calendar date = Calendar.getInstance();
     String requested_date = req.getParameter("date");
     if (requested_date != null) {
       try {
-        start_date.setTime(new SimpleDateFormat("yyyy-MM-dd").parse(requested_date));
+        date.setTime(new SimpleDateFormat("yyyy-MM-dd").parse(requested_date));
       } catch (Exception e) {
       }
     }
-    // Set the time at midnight, so that the below query stays the same.
-    start_date.set(Calendar.MILLISECOND, 0);
-    start_date.set(Calendar.SECOND, 0);
-    start_date.set(Calendar.MINUTE, 0);
-    start_date.set(Calendar.HOUR_OF_DAY, 0);
-    // Exclusive.
-    Calendar end_date = (Calendar)start_date.clone();
-    if (forward) {
-      end_date.add(Calendar.DATE, MAX_DAYS);      
-    } else {
-      start_date.add(Calendar.DATE, 1 - MAX_DAYS);
-      end_date.add(Calendar.DATE, 1);      
-    }
-
-    ArrayDeque<Event> eventList = new ArrayDeque<>();
-    // Load the events of the month of start_date.
-    Events events = Events.getEvents(start_date, lang.getCode());
-    for (Event e : events.getSortedEvents()) {
-      if (e.getCalendar().compareTo(start_date) >= 0 && e.getCalendar().compareTo(end_date) < 0) {
-        eventList.addLast(e);
-      }
-    }
-    // If necessary, load the events of the next month.
-    if (start_date.get(Calendar.MONTH) != end_date.get(Calendar.MONTH) && 
-            (!forward || eventList.size() < MAX_EVENTS)) {
-      events = Events.getEvents(end_date, lang.getCode());
-      for (Event e : events.getSortedEvents()) {
-        if (e.getCalendar().compareTo(start_date) >= 0 && e.getCalendar().compareTo(end_date) < 0) {
-          eventList.addLast(e);
-        }
-      }
+    return EventPages.getFirst(lang, date, req.getParameter("back") == null, size);
+  }
+
+  /**
+   * Returns the events of up to EventWindows.MAX_DAYS days from the requested
+   * date, at most EventWindows.MAX_EVENTS of them. Package-private for the
+   * benchmarks in tools.
+   *
+   * @param langCode language of the descriptions, German if unknown.
+   * @param requested_date first day of the window, as yyyy-MM-dd. Today if
+   *        null or invalid.
+   * @param forward if false, the window ends at the requested date instead.
+   */
+  String getEvents(String langCode, String requested_date, boolean forward) {
+    Language lang = Language.GetByCode(langCode);
+    if (lang == null) {
+      lang = Language.GetByCode("de");
     }
-    while (eventList.size() > MAX_EVENTS) {
-      if (forward) {
-        eventList.removeLast();
-      } else {
-        eventList.removeFirst();
+    
+    Calendar date = Calendar.getInstance();
+    if (requested_date != null) {
+      try {
+        date.setTime(new SimpleDateFormat("yyyy-MM-dd").parse(requested_date));
+      } catch (Exception e) {
       }
     }
+    return EventWindows.getAndPrefetch(lang, date, forward);
+  }
 
-    StringBuilder response = new StringBuilder();
-    response.append("{ \"events\": [");
-    for (Event e : eventList) {
-      EventDescription d = e.getDescription();
-      if (d != null) {
-        response.append("{");
-        response.append("\"date\":\"").append(dateToString(e.getDate())).append("\",");
-        response.append("\"title\":\"").append(Utils.toUnicode(d.getTitle())).append("\",");
-        response.append("\"description\":\"").append(Utils.toUnicode(d.getDesc())).append("\",");
-        response.append("\"location\":\"").append(Utils.toUnicode(e.getLocation())).append("\",");
-        response.append("\"transit\":\"").append(Utils.toUnicode(e.getTransit())).append("\",");
-        response.append("\"url\":\"").append(Utils.toUnicode(e.getUrl())).append("\"");
-        response.append("},");
-      }
+  /**
+   * Returns the number of events and translations per day of each month from
+   * 'from' to 'to', see CalendarIndex. At most MAX_CALENDAR_MONTHS months.
+   *
+   * @param from first month, as yyyy-MM. This month if null or invalid.
+   * @param to last month, as yyyy-MM. 'from' if null or invalid.
+   */
+  public String getCalendar(String from, String to) {
+    Calendar first = Calendar.getInstance();
+    try {
+      first.setTime(new SimpleDateFormat("yyyy-MM").parse(from));
+    } catch (Exception e) {
     }
-    if (response.charAt(response.length() - 1) == ',') {
-      response.deleteCharAt(response.length() - 1); // remove the last ,
+    Calendar last = (Calendar) first.clone();
+    try {
+      last.setTime(new SimpleDateFormat("yyyy-MM").parse(to));
+    } catch (Exception e) {
+    }
+    Calendar max = (Calendar) first.clone();
+    max.add(Calendar.MONTH, MAX_CALENDAR_MONTHS - 1);
+    if (last.after(max)) {
+      last = max;
     }
 
-    response.append("]}");
-    return response.toString();
-  }
-
-  public String dateToString(Date d) {
-    Calendar c = Calendar.getInstance();
-    c.setTime(d);
-    return new StringBuilder().append(c.get(Calendar.MONTH) + 1).append('/')
-            .append(c.get(Calendar.DAY_OF_MONTH)).append('/').append(c.get(Calendar.YEAR))
-            .toString();
+    JSONObject json = new JSONObject();
+    json.put("months", new JSONArray());
+    for (CalendarIndex index : CalendarIndex.getIndexes(first, last)) {
+      json.append("months", index.toJSON());
+    }
+    return json.toString();
   }
 
   public String getLanguages() {
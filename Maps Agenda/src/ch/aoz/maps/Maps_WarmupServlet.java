@@ -0,0 +1,23 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Answers the /_ah/warmup requests App Engine sends to new instances, once
+ * Warmup is done.
+ */
+@SuppressWarnings("serial")
+public class Maps_WarmupServlet extends HttpServlet {
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    String report = Warmup.run();
+    resp.setContentType("text/plain");
+    resp.setCharacterEncoding("UTF-8");
+    resp.getWriter().println(report);
+  }
+}
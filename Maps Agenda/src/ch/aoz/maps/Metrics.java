@@ -0,0 +1,269 @@
+package ch.aoz.maps;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Counters of this instance: latency histograms of the requests per servlet
+ * and type (see MetricsFilter), memcache hits and misses and datastore
+ * operations per aggregate kind. Shown at /admin/metrics.
+ *
+ * Recording is lock-free, so it can be called on every request. The counters
+ * live as long as the instance, each instance has its own.
+ */
+public class Metrics {
+  /** Upper bounds of the latency buckets, in milliseconds. */
+  private static final long[] BUCKETS_MS =
+      { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+  /** Keeps a typo in a url from adding a series per request. */
+  private static final int MAX_SERIES = 200;
+  private static final Pattern NAME = Pattern.compile("[A-Za-z_/.-]{1,64}");
+
+  private static final long startMillis = System.currentTimeMillis();
+  private static final ConcurrentMap<String, Histogram> requests =
+      new ConcurrentHashMap<String, Histogram>();
+  private static final ConcurrentMap<String, AtomicLong> cacheHits =
+      new ConcurrentHashMap<String, AtomicLong>();
+  private static final ConcurrentMap<String, AtomicLong> cacheMisses =
+      new ConcurrentHashMap<String, AtomicLong>();
+  /** Keyed by kind and operation, separated by a space. */
+  private static final ConcurrentMap<String, AtomicLong> datastoreOps =
+      new ConcurrentHashMap<String, AtomicLong>();
+
+  private Metrics() {
+  }
+
+  /**
+   * Records a request that took nanos.
+   *
+   * @param path the servlet path.
+   * @param type the type parameter, or null.
+   */
+  public static void request(String path, String type, long nanos) {
+    String key = name(path) + " " + name(type);
+    Histogram histogram = requests.get(key);
+    if (histogram == null) {
+      if (requests.size() >= MAX_SERIES) {
+        key = "other -";
+      }
+      histogram = requests.get(key);
+      if (histogram == null) {
+        requests.putIfAbsent(key, new Histogram());
+        histogram = requests.get(key);
+      }
+    }
+    histogram.record(nanos);
+  }
+
+  /** Records a memcache lookup of an aggregate of this kind. */
+  public static void cache(String kind, boolean hit) {
+    increment(hit ? cacheHits : cacheMisses, kind, 1);
+  }
+
+  /** Records a batch of memcache lookups of aggregates of this kind. */
+  public static void cache(String kind, int hits, int misses) {
+    increment(cacheHits, kind, hits);
+    increment(cacheMisses, kind, misses);
+  }
+
+  /**
+   * Records a datastore operation on entities of this kind.
+   *
+   * @param op e.g. get, batch_get or put.
+   */
+  public static void datastore(String kind, String op) {
+    increment(datastoreOps, kind + " " + op, 1);
+  }
+
+  public static JSONObject toJson() {
+    JSONObject json = new JSONObject();
+    json.put("since", startMillis);
+    // The requests have one count per bucket, the last one is for the slower
+    // requests.
+    JSONArray bounds = new JSONArray();
+    for (long bound : BUCKETS_MS) {
+      bounds.put(bound);
+    }
+    json.put("bucket_bounds_ms", bounds);
+
+    JSONArray requestsJson = new JSONArray();
+    for (Map.Entry<String, Histogram> entry : sorted(requests).entrySet()) {
+      String[] pathAndType = entry.getKey().split(" ");
+      Histogram h = entry.getValue();
+      long[] counts = h.counts();
+      long count = h.count.get();
+      JSONObject r = new JSONObject();
+      r.put("path", pathAndType[0]);
+      r.put("type", pathAndType[1]);
+      r.put("count", count);
+      r.put("mean_ms", count == 0 ? 0 : h.sumNanos.get() / 1e6 / count);
+      r.put("p50_ms", quantile(counts, count, 0.5));
+      r.put("p95_ms", quantile(counts, count, 0.95));
+      r.put("p99_ms", quantile(counts, count, 0.99));
+      JSONArray buckets = new JSONArray();
+      for (long c : counts) {
+        buckets.put(c);
+      }
+      r.put("buckets", buckets);
+      requestsJson.put(r);
+    }
+    json.put("requests", requestsJson);
+
+    JSONObject cache = new JSONObject();
+    TreeMap<String, AtomicLong> kinds = new TreeMap<String, AtomicLong>(cacheHits);
+    kinds.putAll(cacheMisses);
+    for (String kind : kinds.keySet()) {
+      long hits = get(cacheHits, kind);
+      long misses = get(cacheMisses, kind);
+      JSONObject c = new JSONObject();
+      c.put("hits", hits);
+      c.put("misses", misses);
+      c.put("hit_ratio", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+      cache.put(kind, c);
+    }
+    json.put("cache", cache);
+
+    JSONObject datastore = new JSONObject();
+    for (Map.Entry<String, AtomicLong> entry : sorted(datastoreOps).entrySet()) {
+      String[] kindAndOp = entry.getKey().split(" ");
+      JSONObject ops = datastore.optJSONObject(kindAndOp[0]);
+      if (ops == null) {
+        ops = new JSONObject();
+        datastore.put(kindAndOp[0], ops);
+      }
+      ops.put(kindAndOp[1], entry.getValue().get());
+    }
+    json.put("datastore", datastore);
+    return json;
+  }
+
+  /** @return the counters in the Prometheus text format. */
+  public static String toPrometheus() {
+    StringBuilder out = new StringBuilder();
+    out.append("# HELP maps_request_duration_seconds Latency of the requests.\n");
+    out.append("# TYPE maps_request_duration_seconds histogram\n");
+    for (Map.Entry<String, Histogram> entry : sorted(requests).entrySet()) {
+      String[] pathAndType = entry.getKey().split(" ");
+      String labels = "path=\"" + pathAndType[0] + "\",type=\"" + pathAndType[1] + "\"";
+      Histogram h = entry.getValue();
+      long[] counts = h.counts();
+      long cumulative = 0;
+      for (int i = 0; i < counts.length; i++) {
+        cumulative += counts[i];
+        out.append("maps_request_duration_seconds_bucket{").append(labels)
+            .append(",le=\"")
+            .append(i < BUCKETS_MS.length ? Double.toString(BUCKETS_MS[i] / 1000.0) : "+Inf")
+            .append("\"} ").append(cumulative).append('\n');
+      }
+      out.append("maps_request_duration_seconds_sum{").append(labels).append("} ")
+          .append(h.sumNanos.get() / 1e9).append('\n');
+      out.append("maps_request_duration_seconds_count{").append(labels).append("} ")
+          .append(cumulative).append('\n');
+    }
+
+    out.append("# HELP maps_cache_lookups_total Memcache lookups of aggregates.\n");
+    out.append("# TYPE maps_cache_lookups_total counter\n");
+    for (Map.Entry<String, AtomicLong> entry : sorted(cacheHits).entrySet()) {
+      out.append("maps_cache_lookups_total{kind=\"").append(entry.getKey())
+          .append("\",result=\"hit\"} ").append(entry.getValue().get()).append('\n');
+    }
+    for (Map.Entry<String, AtomicLong> entry : sorted(cacheMisses).entrySet()) {
+      out.append("maps_cache_lookups_total{kind=\"").append(entry.getKey())
+          .append("\",result=\"miss\"} ").append(entry.getValue().get()).append('\n');
+    }
+
+    out.append("# HELP maps_datastore_operations_total Datastore calls.\n");
+    out.append("# TYPE maps_datastore_operations_total counter\n");
+    for (Map.Entry<String, AtomicLong> entry : sorted(datastoreOps).entrySet()) {
+      String[] kindAndOp = entry.getKey().split(" ");
+      out.append("maps_datastore_operations_total{kind=\"").append(kindAndOp[0])
+          .append("\",op=\"").append(kindAndOp[1]).append("\"} ")
+          .append(entry.getValue().get()).append('\n');
+    }
+    return out.toString();
+  }
+
+  /**
+   * @return the upper bound of the bucket the quantile q falls in, in
+   *         milliseconds, or -1 if it's above the last bound.
+   */
+  private static long quantile(long[] counts, long count, double q) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(q * count);
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS_MS.length; i++) {
+      cumulative += counts[i];
+      if (cumulative >= rank) {
+        return BUCKETS_MS[i];
+      }
+    }
+    return -1;
+  }
+
+  private static String name(String value) {
+    if (value == null || !NAME.matcher(value).matches()) {
+      return "-";
+    }
+    return value;
+  }
+
+  private static void increment(ConcurrentMap<String, AtomicLong> counters,
+      String key, long delta) {
+    if (delta == 0) {
+      return;
+    }
+    AtomicLong counter = counters.get(key);
+    if (counter == null) {
+      counters.putIfAbsent(key, new AtomicLong());
+      counter = counters.get(key);
+    }
+    counter.addAndGet(delta);
+  }
+
+  private static long get(ConcurrentMap<String, AtomicLong> counters, String key) {
+    AtomicLong counter = counters.get(key);
+    return counter == null ? 0 : counter.get();
+  }
+
+  private static <V> TreeMap<String, V> sorted(Map<String, V> map) {
+    return new TreeMap<String, V>(map);
+  }
+
+  /** Latencies of one kind of request. */
+  private static class Histogram {
+    /** One count per bucket, plus one for the slower requests. */
+    final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_MS.length + 1);
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong sumNanos = new AtomicLong();
+
+    void record(long nanos) {
+      long millis = nanos / 1000000;
+      int i = 0;
+      while (i < BUCKETS_MS.length && millis >= BUCKETS_MS[i]) {
+        i++;
+      }
+      buckets.incrementAndGet(i);
+      count.incrementAndGet();
+      sumNanos.addAndGet(nanos);
+    }
+
+    long[] counts() {
+      long[] counts = new long[buckets.length()];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = buckets.get(i);
+      }
+      return counts;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Records the latency of each request in Metrics, by servlet path and type
+ * parameter, and traces its storage calls, see StorageTrace.
+ */
+public class MetricsFilter implements Filter {
+  @Override
+  public void init(FilterConfig config) {
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse resp,
+      FilterChain chain) throws IOException, ServletException {
+    if (!(req instanceof HttpServletRequest)) {
+      chain.doFilter(req, resp);
+      return;
+    }
+    HttpServletRequest request = (HttpServletRequest) req;
+    String path = request.getServletPath();
+    String type = request.getParameter("type");
+    StorageTrace.begin(type == null ? path : path + "?type=" + type);
+    long start = System.nanoTime();
+    try {
+      chain.doFilter(req, resp);
+    } finally {
+      Metrics.request(path, type, System.nanoTime() - start);
+      StorageTrace.end();
+    }
+  }
+
+  @Override
+  public void destroy() {
+  }
+}
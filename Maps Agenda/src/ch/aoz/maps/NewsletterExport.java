@@ -2,15 +2,13 @@ package ch.aoz.maps;
 
 import static ch.aoz.maps.NewsletterStyles.CONTAINER_CSS;
 import static ch.aoz.maps.NewsletterStyles.DATE_CSS;
-import static ch.aoz.maps.NewsletterStyles.DATE_FORMATTER;
 import static ch.aoz.maps.NewsletterStyles.DESC_CSS;
 import static ch.aoz.maps.NewsletterStyles.DISCLAIMER_CSS;
-import static ch.aoz.maps.NewsletterStyles.ESCAPE_ATTRIBUTE;
-import static ch.aoz.maps.NewsletterStyles.ESCAPE_TEXT;
 import static ch.aoz.maps.NewsletterStyles.EVENT_CSS;
 import static ch.aoz.maps.NewsletterStyles.EVENT_LEFT_CSS;
 import static ch.aoz.maps.NewsletterStyles.EVENT_RIGHT_CSS;
 import static ch.aoz.maps.NewsletterStyles.EVENT_SINGLE_CSS;
+import static ch.aoz.maps.NewsletterStyles.FORMAT_DATE;
 import static ch.aoz.maps.NewsletterStyles.FOOTER_CSS;
 import static ch.aoz.maps.NewsletterStyles.HEADER_IMG_CSS;
 import static ch.aoz.maps.NewsletterStyles.LOCATION_CSS;
@@ -23,6 +21,8 @@ import static ch.aoz.maps.NewsletterStyles.TRANSIT_CSS;
 import static ch.aoz.maps.NewsletterStyles.URL_CSS;
 import static ch.aoz.maps.NewsletterStyles.WHATS_UP_CSS;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -45,7 +45,188 @@ public class NewsletterExport {
   private final Subscriber subscriber;
 
   // Local variable used to stream the resulting HTML to.
-  private StringBuilder out;
+  private HtmlBuffer out;
+  // Phrases in German and in the language, looked up once per render.
+  private Map<String, Phrase> phrasesDe;
+  private Map<String, Phrase> phrasesLang;
+  // Set while rendering for renderPersonalized(): the subscriber hash is left
+  // as a hole, at the offsets in holes.
+  private List<Integer> holes;
+
+  // Buffer that render() writes into, reused by all the renders of a thread.
+  private static final ThreadLocal<HtmlBuffer> BUFFER =
+      new ThreadLocal<HtmlBuffer>() {
+        @Override
+        protected HtmlBuffer initialValue() {
+          return new HtmlBuffer();
+        }
+      };
+
+  // Rendered event rows, shared by all renders of the instance. Admins
+  // regenerate the newsletters a lot while fixing a typo or two, so most rows
+  // can be reused as they are. The key covers everything a row is rendered
+  // from, see renderEventSingleLanguage() and renderEventDoubleLanguage().
+  private static final FragmentCache<byte[]> ROWS =
+      new FragmentCache<byte[]>(4096);
+
+  // Written in place of the subscriber hash by renderPersonalized(). Encodes
+  // to a single byte, that never appears in the footer links otherwise.
+  private static final String HASH_HOLE = "\u0000";
+  private static final byte HASH_HOLE_BYTE = 0;
+
+  // Value of the background color hole when no color is provided. Replaced by
+  // the caller, e.g. the admin UI.
+  public static final String BACKGROUND_COLOR_PLACEHOLDER = "{{background_color}}";
+
+  // The HTML of the newsletter, compiled once. See HtmlTemplate for the syntax
+  // of the holes.
+  private static final HtmlTemplate PREHEADER = HtmlTemplate.compile(
+      startTable(null) +
+      "<tr>" +
+      "<td valign='top' style='padding: 0'>" +
+      startTable(PREHEADER_CSS) +
+      "<tr>" +
+      "<td valign='top'>" +
+      "<div>{{raw:headLeft}}</div>" +
+      "</td>" +
+      "<td valign='top'>" +
+      "<div>" +
+      "{{raw:headRight}}<br>" +
+      "<a href='{{attr:monthPermalink}}' target='_blank'>{{text:headRightLink}}</a>" +
+      "</div>" +
+      "</td>" +
+      "</tr>" +
+      endTable() +
+      "</td>" +
+      "</tr>" +
+      endTable());
+
+  private static final HtmlTemplate CONTAINER_START = HtmlTemplate.compile(
+      startTable(CONTAINER_CSS) +
+      "<tr>" +
+      "<td align='center' valign='top'>");
+
+  private static final HtmlTemplate HEADER = HtmlTemplate.compile(
+      "<tr>" +
+      "<td align='center' valign='top'>" +
+      startTable(null) +
+      "<tr>" +
+      "<td>" +
+      "<img src='{{attr:aozHeaderUrl}}' style='padding: 16px 16px 0' alt='AOZ'>" +
+      "</td></tr>" +
+      "<tr><td style='background-color: #{{raw:backgroundColor}};" +
+      HEADER_IMG_CSS + "'>" +
+      "<img src='{{attr:logoUrl}}' alt='{{raw:zuriAgenda}}'></div>" +
+      "</td>" +
+      "</tr>" +
+      endTable() +
+      "</td>" +
+      "</tr>");
+
+  private static final String EVENTS_START =
+      "<tr>" +
+      "<td align='center' valign='top'>" +
+      startTable(null);
+
+  private static final HtmlTemplate EVENTS_START_SINGLE = HtmlTemplate.compile(
+      EVENTS_START +
+      "<tr>" +
+      "<td style='" + EVENT_SINGLE_CSS + ";" + WHATS_UP_CSS +
+      "'>{{raw:wasLauftDe}}</td></tr>");
+
+  private static final HtmlTemplate EVENTS_START_DOUBLE = HtmlTemplate.compile(
+      EVENTS_START +
+      "<tr>" +
+      "<td style='" + EVENT_LEFT_CSS + ";" + WHATS_UP_CSS + "'>" +
+      "{{raw:wasLauftDe}}</td><td style='" +
+      rightAlignCss(EVENT_RIGHT_CSS, false) + ";" +
+      WHATS_UP_CSS + "'>{{raw:wasLauft}}</td></tr>");
+
+  private static final HtmlTemplate EVENTS_START_DOUBLE_RTL = HtmlTemplate.compile(
+      EVENTS_START +
+      "<tr>" +
+      "<td style='" + EVENT_LEFT_CSS + ";" + WHATS_UP_CSS + "'>" +
+      "{{raw:wasLauftDe}}</td><td style='" +
+      rightAlignCss(EVENT_RIGHT_CSS, true) + ";" +
+      WHATS_UP_CSS + "'>{{raw:wasLauft}}</td></tr>");
+
+  private static final HtmlTemplate EVENTS_END = HtmlTemplate.compile(
+      endTable() +
+      "</td>" +
+      "</tr>");
+
+  private static final HtmlTemplate EVENT_SINGLE_START = HtmlTemplate.compile(
+      "<tr style='" + EVENT_CSS + "'><td style='" + EVENT_SINGLE_CSS + "'>");
+
+  private static final HtmlTemplate EVENT_DOUBLE_START = HtmlTemplate.compile(
+      "<tr style='" + EVENT_CSS + "'>" +
+      "<td style='" + EVENT_LEFT_CSS + "'>");
+
+  private static final HtmlTemplate EVENT_DOUBLE_MIDDLE = HtmlTemplate.compile(
+      "</td>" +
+      "<td style='" + rightAlignCss(EVENT_RIGHT_CSS, false) + "'>");
+
+  private static final HtmlTemplate EVENT_DOUBLE_MIDDLE_RTL = HtmlTemplate.compile(
+      "</td>" +
+      "<td style='" + rightAlignCss(EVENT_RIGHT_CSS, true) + "'>");
+
+  private static final HtmlTemplate EVENT_END = HtmlTemplate.compile(
+      "</td></tr>");
+
+  private static final String EVENT_DETAILS_END =
+      "<p style='" + LOCATION_CSS + "'>" +
+      "<a title='{{text:location}}' " +
+      "href='https://www.google.ch/maps/search/{{text:location}},Zurich'>" +
+      "{{text:location}}</a></p>" +
+      "<p style='" + TRANSIT_CSS + "'>{{text:transit}}</p>" +
+      "<p style='" + URL_CSS + "'>" +
+      "<a href='{{attr:absoluteUrl}}' target='_blank'>{{text:url}}</a>" +
+      "</p>";
+
+  private static final HtmlTemplate EVENT_DETAILS = HtmlTemplate.compile(
+      "<h1 style='" + DATE_CSS + "'>{{text:date}}</h1>" +
+      "<h2 style='" + rtlCss(TITLE_CSS, false) + "'>{{text:title}}</h2>" +
+      "<div style='" + rtlCss(DESC_CSS, false) + "'>{{text:desc}}</div>" +
+      EVENT_DETAILS_END);
+
+  private static final HtmlTemplate EVENT_DETAILS_RTL = HtmlTemplate.compile(
+      "<h1 style='" + DATE_CSS + "'>{{text:date}}</h1>" +
+      "<h2 style='" + rtlCss(TITLE_CSS, true) + "'>{{text:title}}</h2>" +
+      "<div style='" + rtlCss(DESC_CSS, true) + "'>{{text:desc}}</div>" +
+      EVENT_DETAILS_END);
+
+  private static final HtmlTemplate FOOTER_START = HtmlTemplate.compile(
+      "<tr>" +
+      "<td valign='top' style='padding: 0'>" +
+      startTable(FOOTER_CSS) +
+      "<tr>" +
+      "<td>" +
+      "<span style='" + DISCLAIMER_CSS + "'>" +
+      "{{raw:footNL}}" +
+      "</span>" +
+      "</td>" +
+      "</tr>");
+
+  private static final HtmlTemplate FOOTER_UTILITY = HtmlTemplate.compile(
+      "<tr>" +
+      "<td colspan='2' valign='middle' id='utility'>" +
+      "<div style='text-align:center'>" +
+      "<a href='{{attr:unsubscribeLink}}' target='_blank'>MAPS-Newsletter abbestellen</a>" +
+      " | " +
+      "<a href='{{attr:changeLanguageLink}}' target='_blank'>Einstellungen</a>" +
+      "</div>" +
+      "</td>" +
+      "</tr>");
+
+  private static final HtmlTemplate FOOTER_END = HtmlTemplate.compile(
+      endTable() +
+      "</td>" +
+      "</tr>");
+
+  private static final HtmlTemplate CONTAINER_END = HtmlTemplate.compile(
+      "</td>" +
+      "</tr>" +
+      endTable());
   
   /**
    * @param eventsDe Events object containing the events with German descriptions to display. 
@@ -69,112 +250,115 @@ public class NewsletterExport {
     this.language = Language.GetByCode(lang);
   }
   
-  /** Renders the entire newsletter. */
+  /** Renders the entire newsletter, leaving the background color hole as is. */
   public String render() {
-    out = new StringBuilder();
-    
+    return render(BACKGROUND_COLOR_PLACEHOLDER);
+  }
+
+  /**
+   * Renders the entire newsletter.
+   *
+   * @param backgroundColor hex color of the header, e.g. 08a.
+   */
+  public String render(String backgroundColor) {
+    HtmlBuffer buffer = BUFFER.get();
+    buffer.reset();
+    render(buffer, backgroundColor);
+    return buffer.toString();
+  }
+
+  /**
+   * Renders the entire newsletter at the end of the provided buffer.
+   *
+   * @param backgroundColor hex color of the header, e.g. 08a.
+   */
+  public void render(HtmlBuffer buffer, String backgroundColor) {
+    out = buffer;
+    String lang = language.getCode();
+    Profiling.Span span = Profiling.begin(Profiling.RENDER, "phrases", lang);
+    phrasesDe = Phrases.getMergedPhrases("de");
+    phrasesLang = Phrases.getMergedPhrases(lang);
+    span.end();
+
+    span = Profiling.begin(Profiling.RENDER, "header", lang);
     renderPreheader();
-    
-    startTable(CONTAINER_CSS);
-      out.append("<tr>");
-      out.append("<td align='center' valign='top'>");
-      renderHeader();
+
+    CONTAINER_START.render(out);
+      renderHeader(backgroundColor);
+      span.end();
+      span = Profiling.begin(Profiling.RENDER, "events", lang);
       renderEvents();
+      span.end();
+      span = Profiling.begin(Profiling.RENDER, "footer", lang);
       renderFooter();
-      out.append("</td>");
-      out.append("</tr>");
-    endTable();
-    
-    String result = out.toString();
+    CONTAINER_END.render(out);
+    span.end();
+
     out = null;
-    return result;
+    phrasesDe = null;
+    phrasesLang = null;
   }
-  
+
+  /**
+   * Renders the newsletter for email once, for all the subscribers of the
+   * language. The result is then written for each subscriber, see
+   * PersonalizedNewsletter. The subscriber passed to the constructor, if any,
+   * is ignored.
+   *
+   * @param backgroundColor hex color of the header, e.g. 08a.
+   */
+  public PersonalizedNewsletter renderPersonalized(String backgroundColor) {
+    HtmlBuffer buffer = BUFFER.get();
+    buffer.reset();
+    holes = new ArrayList<Integer>();
+    try {
+      render(buffer, backgroundColor);
+      return new PersonalizedNewsletter(language.getCode(),
+          buffer.toByteArray(), holes);
+    } finally {
+      holes = null;
+    }
+  }
+
   /** Preheader HTML = top of page, above AOZ header. */
   private void renderPreheader() {
-    startTable(null);
-    out.append("<tr>");
-    out.append("<td valign='top' style='padding: 0'>");
-    
-    startTable(PREHEADER_CSS);
-    out.append("<tr>");
-    
-    Map<String, Phrase> phrases = Phrases.getMergedPhrases("de");
-    out.append("<td valign='top'>");
-    out.append("<div>" + phrases.get("headLeft").getPhrase() + "</div>");
-    out.append("</td>");
-    
-    out.append("<td valign='top'>");
-    out.append("<div>");
-    out.append(phrases.get("headRight").getPhrase() + "<br>");
-    addLink(monthPermalink(), phrases.get("headRightLink").getPhrase());
-    out.append("</div>");
-    out.append("</td>");
-    
-    out.append("</tr>");
-    endTable();
-
-    out.append("</td>");
-    out.append("</tr>");
-    endTable();
+    PREHEADER.render(out,
+        phrasesDe.get("headLeft").getPhrase(),
+        phrasesDe.get("headRight").getPhrase(),
+        MAKE_ABSOLUTE_LINK(monthPermalink()),
+        phrasesDe.get("headRightLink").getPhrase());
   }
-  
+
   /** Header HTML = Colored AOZ banner. */
-  private void renderHeader() {
+  private void renderHeader(String backgroundColor) {
     String logoUrl = urlRoot + "/static/themes/transparent_header.png";
     String aozHeaderUrl = urlRoot + "/static/aoz-stadtzuerich.gif";
-    
-    out.append("<tr>");
-    out.append("<td align='center' valign='top'>");
-
-    startTable(null);
-      out.append("<tr>");
-      out.append("<td>");
-      out.append("<img src='" + ESCAPE_ATTRIBUTE(aozHeaderUrl) +
-          "' style='padding: 16px 16px 0' alt='AOZ'>");
-      out.append("</td></tr>");
-      out.append("<tr><td style='background-color: #{{background_color}};" +
-                 HEADER_IMG_CSS + "'>");
-      out.append("<img src='" + ESCAPE_ATTRIBUTE(logoUrl) +
-                 "' alt='" + Phrases.getMergedPhrases("de").get("zuriAgenda").getPhrase() + "'></div>");
-      out.append("</td>");
-      out.append("</tr>");
-    endTable();
-
-    out.append("</td>");
-    out.append("</tr>");
+
+    HEADER.render(out,
+        aozHeaderUrl,
+        backgroundColor,
+        logoUrl,
+        phrasesDe.get("zuriAgenda").getPhrase());
   }
-  
+
   /** Event list, one row for each event. */
   private void renderEvents() {
-    Map<String, Phrase> phrases = Phrases.getMergedPhrases(language.getCode());
-    Phrase wasLauftDe = Phrases.getMergedPhrases("de").get("headNL");
-    Phrase wasLauft = phrases.get("headNL");
-    out.append("<tr>");
-    out.append("<td align='center' valign='top'>");
-    
-    startTable(null);
-      if (wasLauft == null || language.getCode().equals("de")) {
-        out.append("<tr>" +
-                   "<td style='" + EVENT_SINGLE_CSS + ";" + WHATS_UP_CSS +
-                   "'>" + wasLauftDe.getPhrase() + "</td></tr>");
-      } else {
-        out.append("<tr>" +
-            "<td style='" + EVENT_LEFT_CSS + ";" + WHATS_UP_CSS + "'>" +
-            wasLauftDe.getPhrase() + "</td><td style='" +
-            rightAlignCss(EVENT_RIGHT_CSS, language.isRightToLeft()) + ";" +
-            WHATS_UP_CSS + "'>" + wasLauft.getPhrase() + "</td></tr>");
-      }
-      
-      for (Event event : eventsDe.getSortedEvents()) {
-        renderEvent(event);
-      }
-    endTable();
-    
-    out.append("</td>");
-    out.append("</tr>");
+    Phrase wasLauftDe = phrasesDe.get("headNL");
+    Phrase wasLauft = phrasesLang.get("headNL");
+
+    if (wasLauft == null || language.getCode().equals("de")) {
+      EVENTS_START_SINGLE.render(out, wasLauftDe.getPhrase());
+    } else {
+      (language.isRightToLeft() ? EVENTS_START_DOUBLE_RTL : EVENTS_START_DOUBLE)
+          .render(out, wasLauftDe.getPhrase(), wasLauft.getPhrase());
+    }
+
+    for (Event event : eventsDe.getSortedEvents()) {
+      renderEvent(event);
+    }
+    EVENTS_END.render(out);
   }
-  
+
   /** Renders a single event, in one or two languages. */
   private void renderEvent(Event eventDe) {
     if (eventsLang == null) {
@@ -193,114 +377,99 @@ public class NewsletterExport {
       }
     }
   }
-  
+
   /** Renders an event row just in German. */
   private void renderEventSingleLanguage(Event eventDe) {
-      if (eventDe != null) {
-	    EventDescription desc = eventDe.getDescription();
-	    if (desc != null) {
-		out.append("<tr style='" + EVENT_CSS + "'><td style='"
-			+ EVENT_SINGLE_CSS + "'>");
-		renderEventDetails(DATE_FORMATTER.format(eventDe.getDate()),
-			desc.getTitle(), false, // All false, german isn't RTL.
-			desc.getDesc(), false, eventDe.getLocation(),
-			eventDe.getTransit(), eventDe.getUrl());
-		out.append("</td></tr>");
-	    }
-	}
+    if (eventDe != null) {
+      EventDescription desc = eventDe.getDescription();
+      if (desc != null) {
+        String date = FORMAT_DATE(eventDe.getDate());
+        String key = FragmentCache.contentKey("single", date,
+            desc.getTitle(), desc.getDesc(),
+            eventDe.getLocation(), eventDe.getTransit(), eventDe.getUrl());
+        byte[] row = ROWS.get(key);
+        if (row != null) {
+          out.raw(row);
+          return;
+        }
+
+        int start = out.size();
+        EVENT_SINGLE_START.render(out);
+        renderEventDetails(date,
+            desc.getTitle(), desc.getDesc(), false, // German isn't RTL.
+            eventDe.getLocation(), eventDe.getTransit(), eventDe.getUrl());
+        EVENT_END.render(out);
+        ROWS.put(key, out.toByteArray(start));
+      }
+    }
   }
-  
-  /** Renders an event row, in German plus the desired language. */ 
+
+  /** Renders an event row, in German plus the desired language. */
   private void renderEventDoubleLanguage(Event eventDe, Event eventLang) {
     EventDescription descDe = eventDe.getDescription();
     EventDescription descLang = eventLang.getDescription();
-    String date = DATE_FORMATTER.format(eventDe.getDate());
+    String date = FORMAT_DATE(eventDe.getDate());
+    String key = FragmentCache.contentKey("double", language.getCode(),
+        Boolean.toString(language.isRightToLeft()), date,
+        descDe.getTitle(), descDe.getDesc(),
+        descLang.getTitle(), descLang.getDesc(),
+        eventDe.getLocation(), eventDe.getTransit(), eventDe.getUrl());
+    byte[] row = ROWS.get(key);
+    if (row != null) {
+      out.raw(row);
+      return;
+    }
 
-    out.append("<tr style='" + EVENT_CSS + "'>");
-    
+    int start = out.size();
     // Left column is always German translation.
-    out.append("<td style='" + EVENT_LEFT_CSS + "'>");
+    EVENT_DOUBLE_START.render(out);
     renderEventDetails(
         date,
-        descDe.getTitle(), false, // All false, german isn't RTL.
-        descDe.getDesc(), false,
+        descDe.getTitle(), descDe.getDesc(), false, // German isn't RTL.
         eventDe.getLocation(),
         eventDe.getTransit(),
         eventDe.getUrl());
-    out.append("</td>");
-    out.append("<td style='" +
-        rightAlignCss(EVENT_RIGHT_CSS, language.isRightToLeft()) + "'>");
+    (language.isRightToLeft() ? EVENT_DOUBLE_MIDDLE_RTL : EVENT_DOUBLE_MIDDLE)
+        .render(out);
     renderEventDetails(
         date,
-        descLang.getTitle(), language.isRightToLeft(),
-        descLang.getDesc(), language.isRightToLeft(),
+        descLang.getTitle(), descLang.getDesc(), language.isRightToLeft(),
         eventDe.getLocation(),
         eventDe.getTransit(),
         eventDe.getUrl());
-    out.append("</td>");
-    
-    out.append("</tr>");
-  }
-  
-  /** Guesses a Google Maps link for the given location. 
-   *  Escapes all plain text portions that are returned. */
-  private String renderGoogleMapsLink(String location) {
-    return String.format(
-	"<a title='%s' href='https://www.google.ch/maps/search/%s,Zurich'>" +
-        "%s</a>",
-	ESCAPE_TEXT(location), ESCAPE_TEXT(location), ESCAPE_TEXT(location));
+    EVENT_END.render(out);
+    ROWS.put(key, out.toByteArray(start));
   }
 
   /** Renders just the details for one event in one language. */
-  private void renderEventDetails(String date,
-      String title, boolean isTitleRtl, 
-      String desc, boolean isDescRtl, 
-      String location, String transit, String url) {
-    out.append(String.format("<h1 style='%s'>%s</h1>",
-        DATE_CSS, ESCAPE_TEXT(date)));
-    out.append(String.format("<h2 style='%s'>%s</h2>",
-        rtlCss(TITLE_CSS, isTitleRtl), ESCAPE_TEXT(title)));
-    out.append(String.format("<div style='%s'>%s</div>",
-        rtlCss(DESC_CSS, isDescRtl), ESCAPE_TEXT(desc)));
-    out.append(String.format("<p style='%s'>%s</p>",
-        rtlCss(LOCATION_CSS, false), renderGoogleMapsLink(location)));
-    out.append(String.format("<p style='%s'>%s</p>",
-	rtlCss(TRANSIT_CSS, false), ESCAPE_TEXT(transit)));
-    out.append(String.format("<p style='%s'>", 
-        rtlCss(URL_CSS, false)));
-    addLink(url, url);
-    out.append("</p>");
+  private void renderEventDetails(String date, String title, String desc,
+      boolean isRtl, String location, String transit, String url) {
+    (isRtl ? EVENT_DETAILS_RTL : EVENT_DETAILS).render(out,
+        date, title, desc,
+        location, location, location, // Guessed Google Maps link.
+        transit,
+        MAKE_ABSOLUTE_LINK(url), url);
   }
-  
+
   /** Foother HTML = Copy text and links to other pages. */
   private void renderFooter() {
-    out.append("<tr>");
-    out.append("<td valign='top' style='padding: 0'>");
-    
-    startTable(FOOTER_CSS);
-      out.append("<tr>");
-      out.append("<td>");
-      out.append("<span style='" + DISCLAIMER_CSS + "'>");
-      out.append(Phrases.getMergedPhrases("de").get("footNL").getPhrase());
-      out.append("</span>");
-      out.append("</td>");
-      out.append("</tr>");
-  
-      if (this.isEmail()) {
-        out.append("<tr>");
-        out.append("<td colspan='2' valign='middle' id='utility'>");
-        out.append("<div style='text-align:center'>");
-        addLink(unsubscribeLink(), "MAPS-Newsletter abbestellen");
-        out.append(" | ");
-        addLink(changeLanguageLink(), "Einstellungen");
-        out.append("</div>");
-        out.append("</td>");
-        out.append("</tr>");
+    FOOTER_START.render(out,
+        phrasesDe.get("footNL").getPhrase());
+    if (this.isEmail()) {
+      int start = out.size();
+      FOOTER_UTILITY.render(out,
+          MAKE_ABSOLUTE_LINK(unsubscribeLink()),
+          MAKE_ABSOLUTE_LINK(changeLanguageLink()));
+      if (holes != null) {
+        byte[] footer = out.toByteArray(start);
+        for (int i = 0; i < footer.length; i++) {
+          if (footer[i] == HASH_HOLE_BYTE) {
+            holes.add(start + i);
+          }
+        }
       }
-    endTable();
-
-    out.append("</td>");
-    out.append("</tr>");
+    }
+    FOOTER_END.render(out);
   }
   
   // Generators to build more complex properties based on the injected values.
@@ -309,19 +478,24 @@ public class NewsletterExport {
   private boolean isEmail() {
     // When viewed via email, we know the receiver (= subscriber).
     // When viewed online, no subscriber is known, and the language is supplied.
-    return subscriber != null;
+    return subscriber != null || holes != null;
   }
 
   /** @return URL the user should visit to unsubscribe from the newsletter. */ 
   private String unsubscribeLink() {
     return String.format("%s/unsubscribe.jsp?hash=%s",
-        urlRoot, subscriber.getHash());
+        urlRoot, subscriberHash());
   }
 
   /** @return URL the user should visit to change their settings. */
   private String changeLanguageLink() {
     return String.format("%s/change_subscriber.jsp?hash=%s",
-        urlRoot, subscriber.getHash());
+        urlRoot, subscriberHash());
+  }
+
+  /** @return the hash of the subscriber, or a hole when rendering for all. */
+  private String subscriberHash() {
+    return holes != null ? HASH_HOLE : subscriber.getHash();
   }
 
   /** @return URL to visit the web version of this rendering. */
@@ -330,27 +504,23 @@ public class NewsletterExport {
         urlRoot, language.getCode(), year, month+1);
   }
   
-  // HTML writing utilities
-  
-  private void addLink(@Nullable String url, String text) {
-    if (url != null) {
-      url = MAKE_ABSOLUTE_LINK(url);
-      out.append("<a href='" + ESCAPE_ATTRIBUTE(url) + "' target='_blank'>");
-      out.append(ESCAPE_TEXT(text));
-      out.append("</a>");
-    }
+  /** Forgets the rendered rows, so that the next renders start cold. */
+  static void clearCache() {
+    ROWS.clear();
   }
-  
-  private void startTable(@Nullable String style) {
+
+  // HTML utilities, used when compiling the templates.
+
+  private static String startTable(@Nullable String style) {
     // Each startTable should be paired with an endTable.
-    out.append("<table border='0' cellpadding='0' cellspacing='0'");
+    String table = "<table border='0' cellpadding='0' cellspacing='0'";
     if (style != null) {
-      out.append(" style='" + style + ";width:600px;min-width:600px;'");
+      table += " style='" + style + ";width:600px;min-width:600px;'";
     }
-    out.append(">");
+    return table + ">";
   }
-  private void endTable() {
-    out.append("</table>");
+  private static String endTable() {
+    return "</table>";
   }
   
   private static String rtlCss(String CSS, boolean isRtl) {
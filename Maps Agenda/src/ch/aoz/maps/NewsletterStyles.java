@@ -2,6 +2,7 @@ package ch.aoz.maps;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Date;
 
 /**
  * CSS styles for use in the Newsletter. Due to limitations on Email formatting,
@@ -9,22 +10,27 @@ import java.text.SimpleDateFormat;
  * See:  http://www.campaignmonitor.com/css/
  */
 public class NewsletterStyles {
-  // Converting event Dates into visual date strings:
-  public static final DateFormat DATE_FORMATTER =
-      new SimpleDateFormat("d.M.yyyy");
+  // Converting event Dates into visual date strings. SimpleDateFormat is not
+  // threadsafe and newsletters are rendered in parallel, hence one per thread.
+  private static final ThreadLocal<DateFormat> DATE_FORMATTER =
+      new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+          return new SimpleDateFormat("d.M.yyyy");
+        }
+      };
+
+  public static final String FORMAT_DATE(Date date) {
+    return DATE_FORMATTER.get().format(date);
+  }
   
-  // Escape event data to be safe in HTML:
+  // Escape event data to be safe in HTML, see Escaping.
   public static final String ESCAPE_ATTRIBUTE(String attr) {
-    return ESCAPE_TEXT(attr)
-        .replaceAll("\"", "&quot;")
-        .replaceAll("\'", "&#39;");
+    return Escaping.htmlAttribute(attr);
   }
   
   public static final String ESCAPE_TEXT(String text) {
-    return text
-        .replaceAll("&", "&amp;")
-        .replaceAll("<", "&lt;")
-        .replaceAll(">", "&gt;");
+    return Escaping.html(text);
   }
   
   public static final String MAKE_ABSOLUTE_LINK(String url) {
@@ -0,0 +1,165 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Renders the newsletter of a month in all the languages of the agenda.
+ *
+ * The German events and the descriptions of every language are loaded up front
+ * in one batch. The languages are then rendered in parallel, each with its own
+ * copy of the events, since Events and NewsletterExport are not threadsafe.
+ */
+public class Newsletters {
+  public static final char RS = 0x1e;  // Record separator.
+
+  private final Calendar month;
+  private final String urlRoot;
+  private final int year;
+  private final int monthOfYear;
+
+  /**
+   * @param month Month the newsletters are for.
+   * @param urlRoot Root page that all served pages are relative to.
+   */
+  public Newsletters(Calendar month, String urlRoot) {
+    this.month = month;
+    this.urlRoot = urlRoot;
+    this.year = month.get(Calendar.YEAR);
+    this.monthOfYear = month.get(Calendar.MONTH);
+  }
+
+  /**
+   * Renders the public (subscriber-less) newsletter in every language.
+   *
+   * @param backgroundColor hex color of the header, or
+   *        NewsletterExport.BACKGROUND_COLOR_PLACEHOLDER to leave it to the
+   *        caller.
+   * @return a map from language code to rendered newsletter, in the order of
+   *         the languages in the agenda.
+   */
+  public Map<String, String> renderAll(final String backgroundColor) {
+    return renderEach(new Renderer<String>() {
+      @Override
+      public String render(NewsletterExport exporter) {
+        return exporter.render(backgroundColor);
+      }
+    });
+  }
+
+  /**
+   * Renders the email newsletter in every language, with holes for the
+   * subscriber. See NewsletterExport.renderPersonalized().
+   *
+   * @param backgroundColor hex color of the header.
+   * @return a map from language code to newsletter, in the order of the
+   *         languages in the agenda.
+   */
+  public Map<String, PersonalizedNewsletter> renderPersonalized(
+      final String backgroundColor) {
+    return renderEach(new Renderer<PersonalizedNewsletter>() {
+      @Override
+      public PersonalizedNewsletter render(NewsletterExport exporter) {
+        return exporter.renderPersonalized(backgroundColor);
+      }
+    });
+  }
+
+  /**
+   * Writes the newsletter of each subscriber to out, as a stream of records
+   * "email RS html RS". Subscribers are grouped by language; those with a
+   * language that is not in the agenda get the German newsletter.
+   *
+   * @param newsletters the result of renderPersonalized().
+   * @return the number of newsletters written.
+   */
+  public static int writePersonalized(
+      Map<String, PersonalizedNewsletter> newsletters,
+      Collection<Subscriber> subscribers, OutputStream out) throws IOException {
+    Map<String, List<Subscriber>> byLanguage =
+        new LinkedHashMap<String, List<Subscriber>>();
+    for (String lang : newsletters.keySet()) {
+      byLanguage.put(lang, new ArrayList<Subscriber>());
+    }
+    for (Subscriber s : subscribers) {
+      List<Subscriber> group = byLanguage.get(s.getLanguage());
+      if (group == null) {
+        group = byLanguage.get("de");
+      }
+      group.add(s);
+    }
+
+    int written = 0;
+    for (Map.Entry<String, List<Subscriber>> group : byLanguage.entrySet()) {
+      PersonalizedNewsletter newsletter = newsletters.get(group.getKey());
+      for (Subscriber s : group.getValue()) {
+        out.write(s.getEmail().getBytes(StandardCharsets.UTF_8));
+        out.write(RS);
+        newsletter.writeTo(s, out);
+        out.write(RS);
+        written++;
+      }
+    }
+    return written;
+  }
+
+  private interface Renderer<T> {
+    T render(NewsletterExport exporter);
+  }
+
+  private <T> Map<String, T> renderEach(Renderer<T> renderer) {
+    Set<Language> langs = Language.getAllLanguages();
+    Events eventsDe = Events.getEvents(month, "de");
+
+    List<String> codes = new ArrayList<String>();
+    for (Language l : langs) {
+      if (!l.getCode().equals("de")) {
+        codes.add(l.getCode());
+      }
+    }
+    Map<String, EventDescriptions> descriptions =
+        EventDescriptions.getDescriptions(codes, month);
+
+    // The copies are made here rather than in the workers: reading the
+    // Calendar of a shared Event may update its internal fields.
+    List<Callable<T>> tasks = new ArrayList<Callable<T>>();
+    for (Language l : langs) {
+      Events eventsLang = null;
+      if (!l.getCode().equals("de")) {
+        eventsLang = eventsDe.clone();
+        eventsLang.loadDescriptions(descriptions.get(l.getCode()));
+      }
+      tasks.add(renderTask(eventsDe.clone(), eventsLang, l.getCode(), renderer));
+    }
+    List<T> rendered = Parallel.invokeAll(tasks);
+
+    Map<String, T> newsletters = new LinkedHashMap<String, T>();
+    int i = 0;
+    for (Language l : langs) {
+      newsletters.put(l.getCode(), rendered.get(i++));
+    }
+    return newsletters;
+  }
+
+  private <T> Callable<T> renderTask(final Events eventsDe,
+      final Events eventsLang, final String lang, final Renderer<T> renderer) {
+    return new Callable<T>() {
+      @Override
+      public T call() {
+        NewsletterExport exporter = new NewsletterExport(eventsDe, eventsLang,
+            lang, urlRoot, year, monthOfYear,
+            null /* subscriber, none for public render. */);
+        return renderer.render(exporter);
+      }
+    };
+  }
+}
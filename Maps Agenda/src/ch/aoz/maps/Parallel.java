@@ -0,0 +1,68 @@
+package ch.aoz.maps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.appengine.api.ThreadManager;
+
+/**
+ * Runs independent pieces of work (typically one per language) on a small,
+ * bounded pool of threads.
+ *
+ * App Engine only lets request code create threads through the ThreadManager,
+ * and those threads may not outlive the request. The pool is therefore created
+ * for each batch and shut down once the batch is done.
+ */
+public class Parallel {
+  /** Maximum number of worker threads used for a single batch. */
+  public static final int MAX_THREADS =
+      Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Runs all the tasks and waits for them to complete.
+   *
+   * @param tasks the work to do. Tasks must not depend on each other.
+   * @return the results of the tasks, in the same order as the tasks.
+   * @throws IllegalStateException if one of the tasks failed.
+   */
+  public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+    List<T> results = new ArrayList<T>(tasks.size());
+    if (tasks.size() <= 1) {
+      // Not worth a thread.
+      for (Callable<T> task : tasks) {
+        try {
+          results.add(task.call());
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      return results;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(tasks.size(), MAX_THREADS),
+        ThreadManager.currentRequestThreadFactory());
+    try {
+      List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+      for (Callable<T> task : tasks) {
+        futures.add(executor.submit(StorageTrace.wrap(task)));
+      }
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } finally {
+      executor.shutdownNow();
+    }
+    return results;
+  }
+}
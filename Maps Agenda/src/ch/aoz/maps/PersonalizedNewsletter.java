@@ -0,0 +1,102 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A newsletter rendered once for a language, with holes where the hash of the
+ * subscriber goes (unsubscribe and settings links). Writing it for a
+ * subscriber only copies the precomputed bytes and fills in the holes.
+ *
+ * Immutable, and can be shared between threads.
+ */
+public class PersonalizedNewsletter {
+  private final String lang;
+  /** The subscriber hash goes between two consecutive fragments. */
+  private final byte[][] fragments;
+
+  /**
+   * @param lang language the newsletter is in.
+   * @param rendered the UTF-8 encoded newsletter.
+   * @param holes offsets in rendered of the one-byte markers to replace with
+   *        the hash of the subscriber, in increasing order.
+   */
+  PersonalizedNewsletter(String lang, byte[] rendered, List<Integer> holes) {
+    this.lang = lang;
+    this.fragments = new byte[holes.size() + 1][];
+    int start = 0;
+    for (int i = 0; i < holes.size(); i++) {
+      fragments[i] = Arrays.copyOfRange(rendered, start, holes.get(i));
+      start = holes.get(i) + 1;  // Skip the marker.
+    }
+    fragments[holes.size()] = Arrays.copyOfRange(rendered, start, rendered.length);
+  }
+
+  public String getLang() {
+    return lang;
+  }
+
+  /** Writes the newsletter of the subscriber to out, UTF-8 encoded. */
+  public void writeTo(Subscriber subscriber, OutputStream out) throws IOException {
+    byte[] hash = encodeHash(subscriber.getHash());
+    out.write(fragments[0]);
+    for (int i = 1; i < fragments.length; i++) {
+      out.write(hash);
+      out.write(fragments[i]);
+    }
+  }
+
+  /** @return the newsletter of the subscriber. */
+  public String render(Subscriber subscriber) {
+    HtmlBuffer buffer = new HtmlBuffer(length(subscriber));
+    try {
+      writeTo(subscriber, new BufferOutputStream(buffer));
+    } catch (IOException e) {
+      // The buffer doesn't throw.
+      throw new IllegalStateException(e);
+    }
+    return buffer.toString();
+  }
+
+  private int length(Subscriber subscriber) {
+    int length = encodeHash(subscriber.getHash()).length * (fragments.length - 1);
+    for (byte[] fragment : fragments) {
+      length += fragment.length;
+    }
+    return length;
+  }
+
+  private static byte[] encodeHash(String hash) {
+    // Hashes are hex strings (see Subscriber), so this is the fast path. Escape
+    // anything else, it ends up in the value of an href.
+    for (int i = 0; i < hash.length(); i++) {
+      char c = hash.charAt(i);
+      if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+          || (c >= 'A' && c <= 'Z'))) {
+        return new HtmlBuffer(hash.length() * 6).attribute(hash).toByteArray();
+      }
+    }
+    return hash.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static class BufferOutputStream extends OutputStream {
+    private final HtmlBuffer buffer;
+
+    BufferOutputStream(HtmlBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) {
+      buffer.raw(new byte[] { (byte) b });
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      buffer.raw(b, off, len);
+    }
+  }
+}
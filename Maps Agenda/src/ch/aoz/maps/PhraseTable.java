@@ -0,0 +1,89 @@
+package ch.aoz.maps;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Read-only map of phrase key to phrase, backed by two arrays sorted by key.
+ * Lookups are binary searches, and iteration is in key order.
+ *
+ * Immutable, and can be shared between threads. See Phrases.getMergedPhrases.
+ */
+public class PhraseTable extends AbstractMap<String, Phrase> {
+  private final String[] keys;
+  private final Phrase[] phrases;
+
+  /** @param phrases the phrases of the table, by key. Copied. */
+  PhraseTable(Map<String, Phrase> phrases) {
+    TreeMap<String, Phrase> sorted = new TreeMap<String, Phrase>(phrases);
+    this.keys = sorted.keySet().toArray(new String[sorted.size()]);
+    this.phrases = sorted.values().toArray(new Phrase[sorted.size()]);
+  }
+
+  @Override
+  public Phrase get(Object key) {
+    int i = indexOf(key);
+    return i < 0 ? null : phrases[i];
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return keys.length;
+  }
+
+  private int indexOf(Object key) {
+    if (!(key instanceof String)) {
+      return -1;
+    }
+    return Arrays.binarySearch(keys, (String) key);
+  }
+
+  @Override
+  public Set<Map.Entry<String, Phrase>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Phrase>>() {
+      @Override
+      public int size() {
+        return keys.length;
+      }
+
+      @Override
+      public Iterator<Map.Entry<String, Phrase>> iterator() {
+        return new Iterator<Map.Entry<String, Phrase>>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < keys.length;
+          }
+
+          @Override
+          public Map.Entry<String, Phrase> next() {
+            if (next >= keys.length) {
+              throw new NoSuchElementException();
+            }
+            Map.Entry<String, Phrase> entry =
+                new SimpleImmutableEntry<String, Phrase>(keys[next], phrases[next]);
+            next++;
+            return entry;
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+}
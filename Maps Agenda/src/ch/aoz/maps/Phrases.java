@@ -1,8 +1,13 @@
 package ch.aoz.maps;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
@@ -20,6 +25,13 @@ public class Phrases implements java.io.Serializable {
   public static final char RS = 0x1e;  // Record separator.
   private static final long serialVersionUID = 161719L;
 
+  // Incremented whenever phrases are stored, see getMergedPhrases().
+  private static final SharedCounter VERSION =
+      new SharedCounter(entityKind + "_version");
+  private static final List<String> FALLBACK_CHAIN = parseFallbackChain(
+      System.getProperty("phrases.fallback", "de"));
+  private static volatile MergedTables mergedTables;
+
   private String lang;
   private Map<String, Phrase> phrases;
   private boolean isOk;
@@ -108,11 +120,12 @@ public class Phrases implements java.io.Serializable {
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      datastore.put(this.toEntity());
+      Storage.put(datastore, this.toEntity());
     } catch (Exception ex) {
       return false;
     }
     addToCache();
+    VERSION.increment();
     return true;
   }
  
@@ -125,12 +138,13 @@ public class Phrases implements java.io.Serializable {
    */
   public static Phrases GetPhrasesForLanguage(String language) {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    if (syncCache.contains(entityKind + "_" + language)) {
-      return (Phrases)syncCache.get(entityKind + "_" + language);
+    Object cached = Storage.cacheGet(syncCache, entityKind, entityKind + "_" + language);
+    if (cached != null) {
+      return (Phrases) cached;
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-     Entity e = datastore.get(KeyFactory.createKey(entityKind, language));
+     Entity e = Storage.get(datastore, KeyFactory.createKey(entityKind, language));
      return new Phrases(e);
     } catch (EntityNotFoundException e) {
       return new Phrases(language);
@@ -139,34 +153,91 @@ public class Phrases implements java.io.Serializable {
 
   /**
    * Returns a map of all the phrases defined in the system in a given language.
-   * If a phrase is not yet translated in the requested language, the German version
-   * of the phrase is provided.
-   * 
+   * If a phrase is not yet translated in the requested language, the version
+   * of the first language of the fallback chain that has it is provided, see
+   * getFallbackChain().
+   *
+   * The maps are computed once per version of the phrases and shared, so they
+   * are read-only. Phrases stored on another instance are seen within
+   * SharedCounter.CHECK_MILLIS.
+   *
    * @param lang Language in which to get the phrases.
-   * @return The map of phrase's key to phrase. If a phrase is not found in the
-   *         requested language, the German version is provided instead.
+   * @return The read-only map of phrase's key to phrase.
    */
   public static Map<String, Phrase> getMergedPhrases(String lang) {
+    long version = VERSION.get();
+    MergedTables tables = mergedTables;
+    if (tables == null || tables.version != version) {
+      tables = new MergedTables(version);
+      mergedTables = tables;
+    }
+    PhraseTable table = tables.byLang.get(lang);
+    if (table == null) {
+      table = mergePhrases(lang);
+      PhraseTable previous = tables.byLang.putIfAbsent(lang, table);
+      if (previous != null) {
+        table = previous;
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Returns the languages that untranslated phrases are taken from, in order.
+   * Set with the system property phrases.fallback, a comma-separated list of
+   * language codes. Defaults to German.
+   */
+  public static List<String> getFallbackChain() {
+    return FALLBACK_CHAIN;
+  }
+
+  private static PhraseTable mergePhrases(String lang) {
+    List<String> chain = new ArrayList<String>();
+    chain.add(lang);
+    for (String fallback : FALLBACK_CHAIN) {
+      if (!chain.contains(fallback)) {
+        chain.add(fallback);
+      }
+    }
     Map<String, Phrase> phrases = new HashMap<String, Phrase>();
-    Phrases langPhrases = Phrases.GetPhrasesForLanguage(lang);
-    if (langPhrases != null) {
+    for (int i = 0; i < chain.size(); i++) {
+      Phrases langPhrases = Phrases.GetPhrasesForLanguage(chain.get(i));
+      if (langPhrases == null) {
+        continue;
+      }
+      // Empty phrases are not translated yet, except in the last language:
+      // there is nothing to fall back to.
+      boolean isLast = i == chain.size() - 1;
       for (Phrase phrase : langPhrases.getPhrases()) {
-        if (phrase.getPhrase().length() > 0) {
+        if ((isLast || phrase.getPhrase().length() > 0)
+            && !phrases.containsKey(phrase.getKey())) {
           phrases.put(phrase.getKey(), phrase);
         }
       }
     }
-    if (lang != "de") {
-      Phrases dePhrases = Phrases.GetPhrasesForLanguage("de");
-      if (dePhrases != null) {
-        for (Phrase phrase : dePhrases.getPhrases()) {
-          if (!phrases.containsKey(phrase.getKey())) {
-            phrases.put(phrase.getKey(), phrase);
-          }
-        }
+    return new PhraseTable(phrases);
+  }
+
+  /** The merged phrases of one version, by language. */
+  private static class MergedTables {
+    final long version;
+    final ConcurrentMap<String, PhraseTable> byLang =
+        new ConcurrentHashMap<String, PhraseTable>();
+
+    MergedTables(long version) {
+      this.version = version;
+    }
+  }
+
+  private static List<String> parseFallbackChain(String property) {
+    List<String> chain = new ArrayList<String>();
+    for (String code : property.split(",")) {
+      code = code.trim();
+      if (!code.isEmpty() && !chain.contains(code)) {
+        chain.add(code);
       }
     }
-    return phrases;
+    return Collections.unmodifiableList(chain);
   }
 
   public static boolean deleteKey(String key) {
@@ -220,7 +291,7 @@ public class Phrases implements java.io.Serializable {
   
   private void addToCache() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    syncCache.put(getCacheKey(), this);    
+    Storage.cachePut(syncCache, getCacheKey(), this);    
   }
 
   /** Only setters and getters below. */
@@ -0,0 +1,103 @@
+package ch.aoz.maps;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+/**
+ * Loads what the next click will likely need, in a task after the request:
+ * the windows before and after an event window of the agenda, and the
+ * months before and after a month of admin2. See Maps_AdminPrefetchServlet.
+ *
+ * Each prefetch is queued once: a marker in memcache tells that it was
+ * queued already. For windows, the marker has the key of the window, so it
+ * goes away when the windows are rendered again. For months, it expires.
+ *
+ * Disabled with the system property prefetch.enabled=false.
+ */
+public class Prefetch {
+  private static final Logger logger = Logger.getLogger(Prefetch.class.getName());
+
+  static final String TASK_URL = "/admin/prefetch";
+  private static final String kind = "Prefetch";
+  private static final int WINDOW_MARKER_SECONDS = 2 * 24 * 3600;
+  private static final int MONTH_MARKER_SECONDS = 600;
+
+  private static final boolean enabled =
+      !"false".equals(System.getProperty("prefetch.enabled"));
+
+  private Prefetch() {
+  }
+
+  /**
+   * Queues the prefetch of the windows around this one, see
+   * EventWindows.getAndPrefetch().
+   *
+   * @param windowKey the memcache key of the window.
+   */
+  static void adjacentWindows(String windowKey, Language lang, Calendar day,
+      boolean forward) {
+    if (!enabled) {
+      return;
+    }
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    String marker = kind + "-" + windowKey;
+    if (!Storage.cacheAdd(syncCache, marker, Boolean.TRUE,
+        Expiration.byDeltaSeconds(WINDOW_MARKER_SECONDS))) {
+      return;
+    }
+    TaskOptions task = TaskOptions.Builder.withUrl(TASK_URL)
+        .param("type", "window")
+        .param("lang", lang.getCode())
+        .param("date", new SimpleDateFormat("yyyy-MM-dd").format(day.getTime()));
+    if (!forward) {
+      task.param("back", "true");
+    }
+    queue(task);
+  }
+
+  /** Queues the prefetch of the events of the months around this one. */
+  public static void adjacentMonths(Language lang, Calendar month) {
+    if (!enabled) {
+      return;
+    }
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    String yearMonth = new SimpleDateFormat("yyyy-MM").format(month.getTime());
+    String marker = kind + "-Events-" + lang.getCode() + "-" + yearMonth;
+    if (!Storage.cacheAdd(syncCache, marker, Boolean.TRUE,
+        Expiration.byDeltaSeconds(MONTH_MARKER_SECONDS))) {
+      return;
+    }
+    queue(TaskOptions.Builder.withUrl(TASK_URL)
+        .param("type", "month")
+        .param("lang", lang.getCode())
+        .param("month", yearMonth));
+  }
+
+  /** Loads the events and descriptions of the months around this one. */
+  public static void loadAdjacentMonths(Language lang, Calendar month) {
+    Calendar c = (Calendar) month.clone();
+    c.set(Calendar.DATE, 1);
+    c.add(Calendar.MONTH, -1);
+    Events.getEvents(c, lang.getCode());
+    c.add(Calendar.MONTH, 2);
+    Events.getEvents(c, lang.getCode());
+  }
+
+  private static void queue(TaskOptions task) {
+    try {
+      // Not waited for, the response doesn't depend on it.
+      QueueFactory.getDefaultQueue().addAsync(task);
+    } catch (RuntimeException e) {
+      // Only the next click is slower.
+      logger.log(Level.WARNING, "Failed to queue the prefetch", e);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+package ch.aoz.maps;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * On-demand Java Flight Recorder recordings, with events of our own for
+ * storage calls, newsletter render phases and the XML export of each
+ * language. See /admin/profile.
+ *
+ * JFR is only there on Java 11 and later runtimes. The app is deployed on
+ * the Java 7 runtime, so this is switched off with the system property
+ * profiling.enabled in appengine-web.xml until the app moves to a runtime
+ * with JFR. While it is off, or on a runtime without JFR, isAvailable() is
+ * false, /admin/profile answers 404, and begin() returns right away on a
+ * constant, which the JIT folds away.
+ *
+ * This code has to compile for Java 7: the jdk.jfr API is used through
+ * reflection, and the event types are created at runtime with
+ * jdk.jfr.EventFactory.
+ *
+ * Spans only create events while a recording started here is running. The
+ * rest of the time begin() only reads a volatile: the detail is passed as is
+ * and only turned into a string for an event.
+ */
+public class Profiling {
+  public static final EventType STORAGE =
+      new EventType("Storage", "Storage call", "Operation", "Key");
+  public static final EventType RENDER =
+      new EventType("NewsletterRender", "Newsletter render phase", "Phase", "Language");
+  public static final EventType EXPORT =
+      new EventType("XmlExport", "XML export of a language", "Language", "Events");
+  private static final List<EventType> TYPES = Arrays.asList(STORAGE, RENDER, EXPORT);
+
+  /** Longest recording, App Engine requests time out after 60s. */
+  public static final int MAX_SECONDS = 50;
+
+  private static final boolean AVAILABLE =
+      Boolean.getBoolean("profiling.enabled") && hasJfr();
+  private static final Span NONE = new Span(null);
+  private static volatile boolean recording = false;
+
+  private static Method begin;
+  private static Method end;
+  private static Method commit;
+  private static Method set;
+
+  private Profiling() {
+  }
+
+  /** @return whether profiling is enabled and this runtime has JFR. */
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  private static boolean hasJfr() {
+    try {
+      Class.forName("jdk.jfr.Recording");
+      Class.forName("jdk.jfr.EventFactory");
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Starts an event of this type, to be ended with Span.end().
+   *
+   * @param name first field of the event, e.g. the operation.
+   * @param detail second field of the event, e.g. the key, as its
+   *        toString().
+   */
+  public static Span begin(EventType type, String name, Object detail) {
+    if (!AVAILABLE || !recording) {
+      return NONE;
+    }
+    try {
+      Object event = type.newEvent.invoke(type.factory);
+      set.invoke(event, 0, name);
+      set.invoke(event, 1, detail == null ? null : detail.toString());
+      begin.invoke(event);
+      return new Span(event);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      return NONE;
+    }
+  }
+
+  /**
+   * Records for that many seconds, with the "profile" settings of JFR plus our
+   * events. One recording at a time.
+   *
+   * @return the recording, in the .jfr format.
+   * @throws UnsupportedOperationException if profiling is disabled or this
+   *         runtime has no JFR.
+   */
+  public static synchronized byte[] record(int seconds) throws Exception {
+    if (!isAvailable()) {
+      throw new UnsupportedOperationException("Profiling is not available");
+    }
+    initEventTypes();
+    Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+    Class<?> configurationClass = Class.forName("jdk.jfr.Configuration");
+    Object configuration = configurationClass
+        .getMethod("getConfiguration", String.class).invoke(null, "profile");
+    Object jfr = recordingClass.getConstructor(configurationClass)
+        .newInstance(configuration);
+    File file = File.createTempFile("maps", ".jfr");
+    try {
+      for (EventType type : TYPES) {
+        recordingClass.getMethod("enable", String.class).invoke(jfr, type.name);
+      }
+      recordingClass.getMethod("start").invoke(jfr);
+      recording = true;
+      try {
+        Thread.sleep(Math.min(seconds, MAX_SECONDS) * 1000L);
+      } finally {
+        recording = false;
+        recordingClass.getMethod("stop").invoke(jfr);
+      }
+      recordingClass.getMethod("dump", java.nio.file.Path.class)
+          .invoke(jfr, file.toPath());
+      return Files.readAllBytes(file.toPath());
+    } finally {
+      recordingClass.getMethod("close").invoke(jfr);
+      file.delete();
+    }
+  }
+
+  /** Creates the event types, once. Called with the class lock held. */
+  private static void initEventTypes() throws Exception {
+    if (set != null) {
+      return;
+    }
+    Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+    Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+    Class<?> valueClass = Class.forName("jdk.jfr.ValueDescriptor");
+    Constructor<?> value = valueClass.getConstructor(Class.class, String.class, List.class);
+    Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+    Method create = factoryClass.getMethod("create", List.class, List.class);
+    for (EventType type : TYPES) {
+      List<Object> annotations = Arrays.asList(
+          annotation.newInstance(Class.forName("jdk.jfr.Name"), type.name),
+          annotation.newInstance(Class.forName("jdk.jfr.Label"), type.label),
+          annotation.newInstance(Class.forName("jdk.jfr.Category"),
+              new String[] { "Maps Agenda" }));
+      List<Object> fields = Arrays.asList(
+          value.newInstance(String.class, "name", Arrays.asList(
+              annotation.newInstance(Class.forName("jdk.jfr.Label"), type.nameLabel))),
+          value.newInstance(String.class, "detail", Arrays.asList(
+              annotation.newInstance(Class.forName("jdk.jfr.Label"), type.detailLabel))));
+      type.factory = create.invoke(null, annotations, fields);
+      type.newEvent = factoryClass.getMethod("newEvent");
+    }
+    Class<?> eventClass = Class.forName("jdk.jfr.Event");
+    begin = eventClass.getMethod("begin");
+    end = eventClass.getMethod("end");
+    commit = eventClass.getMethod("commit");
+    set = eventClass.getMethod("set", int.class, Object.class);
+  }
+
+  /** A kind of event, with a name and a detail field. */
+  public static class EventType {
+    private final String name;
+    private final String label;
+    private final String nameLabel;
+    private final String detailLabel;
+    // Set by initEventTypes() before the first recording, and published to
+    // the other threads by the write of recording.
+    private Object factory;
+    private Method newEvent;
+
+    private EventType(String name, String label, String nameLabel,
+        String detailLabel) {
+      this.name = "ch.aoz.maps." + name;
+      this.label = label;
+      this.nameLabel = nameLabel;
+      this.detailLabel = detailLabel;
+    }
+  }
+
+  /** An event being recorded. */
+  public static class Span {
+    private final Object event;
+
+    private Span(Object event) {
+      this.event = event;
+    }
+
+    /** Ends and commits the event. */
+    public void end() {
+      if (event == null) {
+        return;
+      }
+      try {
+        end.invoke(event);
+        commit.invoke(event);
+      } catch (IllegalAccessException | InvocationTargetException e) {
+        // The event is lost, the recording goes on.
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package ch.aoz.maps;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+/**
+ * A counter shared by all instances through memcache, used as the version of
+ * something computed from the datastore. Reading it doesn't go to memcache
+ * every time: the value is checked at most every CHECK_MILLIS, so a change
+ * made on another instance is seen that much later. A change made on this
+ * instance is seen at once.
+ *
+ * If the counter was evicted, it restarts from the current time, so that it
+ * doesn't come back to a value seen before. If memcache is unavailable, the
+ * value is the negated current time: what depends on it is computed again
+ * after every check, since changes can't be seen.
+ *
+ * Threadsafe.
+ */
+class SharedCounter {
+  static final long CHECK_MILLIS = 5000;
+
+  private final String key;
+  private volatile long value;
+  /** When the value was last read from memcache, 0 if never. */
+  private volatile long checked;
+
+  SharedCounter(String key) {
+    this.key = key;
+  }
+
+  /** @return the value of the counter, at most CHECK_MILLIS old. */
+  long get() {
+    long now = System.currentTimeMillis();
+    if (checked == 0 || now - checked >= CHECK_MILLIS) {
+      update(0, now);
+    }
+    return value;
+  }
+
+  /** Changes the value on all instances. */
+  void increment() {
+    update(1, System.currentTimeMillis());
+  }
+
+  private void update(long delta, long now) {
+    Long shared = Storage.cacheIncrement(
+        MemcacheServiceFactory.getMemcacheService(), key, delta, now);
+    // The value has to be visible before the time of the check.
+    value = shared == null ? -now : shared;
+    checked = now;
+  }
+}
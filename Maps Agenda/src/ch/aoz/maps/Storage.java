@@ -0,0 +1,166 @@
+package ch.aoz.maps;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+
+/**
+ * The memcache and datastore calls of the aggregates. Each call is counted in
+ * Metrics, recorded with its key and duration in the StorageTrace of the
+ * request, and is a Profiling event. Keys that aren't strings are passed as
+ * is to both, and only turned into strings when they are logged or recorded.
+ */
+public class Storage {
+  private Storage() {
+  }
+
+  /**
+   * @return the cached aggregate of this kind, or null if it isn't in
+   *         memcache.
+   */
+  public static Object cacheGet(MemcacheService syncCache, String kind,
+      String key) {
+    long start = System.nanoTime();
+    Profiling.Span span = Profiling.begin(Profiling.STORAGE, "cache_get", key);
+    Object value = null;
+    if (syncCache.contains(key)) {
+      value = syncCache.get(key);
+    }
+    span.end();
+    Metrics.cache(kind, value != null);
+    StorageTrace.record("cache_get", key, start);
+    return value;
+  }
+
+  /** @return the cached aggregates of this kind, by key. */
+  public static Map<String, Object> cacheGetAll(MemcacheService syncCache,
+      String kind, Collection<String> keys) {
+    long start = System.nanoTime();
+    Profiling.Span span =
+        Profiling.begin(Profiling.STORAGE, "cache_get_all", keys);
+    Map<String, Object> values = syncCache.getAll(keys);
+    span.end();
+    Metrics.cache(kind, values.size(), keys.size() - values.size());
+    StorageTrace.record("cache_get_all", keys, start);
+    return values;
+  }
+
+  public static void cachePut(MemcacheService syncCache, String key,
+      Object value) {
+    cachePut(syncCache, key, value, null);
+  }
+
+  /** @param expiration null for no expiration. */
+  public static void cachePut(MemcacheService syncCache, String key,
+      Object value, Expiration expiration) {
+    long start = System.nanoTime();
+    Profiling.Span span = Profiling.begin(Profiling.STORAGE, "cache_put", key);
+    syncCache.put(key, value, expiration);
+    span.end();
+    StorageTrace.record("cache_put", key, start);
+  }
+
+  /**
+   * Puts the value unless the key is already in memcache.
+   *
+   * @return true if the value was put.
+   */
+  public static boolean cacheAdd(MemcacheService syncCache, String key,
+      Object value, Expiration expiration) {
+    long start = System.nanoTime();
+    Profiling.Span span = Profiling.begin(Profiling.STORAGE, "cache_add", key);
+    boolean added = syncCache.put(key, value, expiration,
+        MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    span.end();
+    StorageTrace.record("cache_add", key, start);
+    return added;
+  }
+
+  /** Same as MemcacheService.increment(). */
+  public static Long cacheIncrement(MemcacheService syncCache, String key,
+      long delta, long initialValue) {
+    long start = System.nanoTime();
+    Profiling.Span span =
+        Profiling.begin(Profiling.STORAGE, "cache_increment", key);
+    Long value = syncCache.increment(key, delta, initialValue);
+    span.end();
+    StorageTrace.record("cache_increment", key, start);
+    return value;
+  }
+
+  public static Entity get(DatastoreService datastore, Key key)
+      throws EntityNotFoundException {
+    long start = System.nanoTime();
+    Profiling.Span span = Profiling.begin(Profiling.STORAGE, "get", key);
+    try {
+      return datastore.get(key);
+    } finally {
+      span.end();
+      Metrics.datastore(key.getKind(), "get");
+      StorageTrace.record("get", key, start);
+    }
+  }
+
+  /** Same as get(), within the transaction. */
+  public static Entity get(DatastoreService datastore, Transaction txn, Key key)
+      throws EntityNotFoundException {
+    long start = System.nanoTime();
+    Profiling.Span span = Profiling.begin(Profiling.STORAGE, "get", key);
+    try {
+      return datastore.get(txn, key);
+    } finally {
+      span.end();
+      Metrics.datastore(key.getKind(), "get");
+      StorageTrace.record("get", key, start);
+    }
+  }
+
+  public static Map<Key, Entity> get(DatastoreService datastore, String kind,
+      Collection<Key> keys) {
+    long start = System.nanoTime();
+    Profiling.Span span =
+        Profiling.begin(Profiling.STORAGE, "batch_get", keys);
+    try {
+      return datastore.get(keys);
+    } finally {
+      span.end();
+      Metrics.datastore(kind, "batch_get");
+      StorageTrace.record("batch_get", keys, start);
+    }
+  }
+
+  public static Key put(DatastoreService datastore, Entity entity) {
+    long start = System.nanoTime();
+    Profiling.Span span =
+        Profiling.begin(Profiling.STORAGE, "put", entity.getKey());
+    try {
+      return datastore.put(entity);
+    } finally {
+      span.end();
+      Metrics.datastore(entity.getKind(), "put");
+      StorageTrace.record("put", entity.getKey(), start);
+    }
+  }
+
+  /** Same as put(), within the transaction. */
+  public static Key put(DatastoreService datastore, Transaction txn,
+      Entity entity) {
+    long start = System.nanoTime();
+    Profiling.Span span =
+        Profiling.begin(Profiling.STORAGE, "put", entity.getKey());
+    try {
+      return datastore.put(txn, entity);
+    } finally {
+      span.end();
+      Metrics.datastore(entity.getKind(), "put");
+      StorageTrace.record("put", entity.getKey(), start);
+    }
+  }
+}
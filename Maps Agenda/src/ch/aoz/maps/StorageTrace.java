@@ -0,0 +1,148 @@
+package ch.aoz.maps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The storage calls of one request, see Storage. When the request ends, logs
+ * a warning if it made more calls than the budget, or called the same
+ * operation on the same key more than once: that's typically a lookup in a
+ * loop that should have been done once. All the calls are logged at FINE.
+ *
+ * The budget is set with the system property storage.budget.
+ * Threadsafe: the workers of Parallel record into the trace of their request.
+ */
+public class StorageTrace {
+  private static final Logger logger =
+      Logger.getLogger(StorageTrace.class.getName());
+
+  private static final int BUDGET = Integer.getInteger("storage.budget", 20);
+  /** Calls listed in a warning, the others are only counted. */
+  private static final int MAX_LISTED = 50;
+
+  private static final ThreadLocal<StorageTrace> current =
+      new ThreadLocal<StorageTrace>();
+
+  private final String name;
+  private final List<Call> calls = new ArrayList<Call>();
+
+  private StorageTrace(String name) {
+    this.name = name;
+  }
+
+  /** Starts tracing the storage calls of this thread. */
+  public static void begin(String name) {
+    current.set(new StorageTrace(name));
+  }
+
+  /** Stops tracing the storage calls of this thread and logs them. */
+  public static void end() {
+    StorageTrace trace = current.get();
+    current.remove();
+    if (trace != null) {
+      trace.report();
+    }
+  }
+
+  /**
+   * @return the task, recording its storage calls into the trace of this
+   *         thread, if any.
+   */
+  public static <T> Callable<T> wrap(final Callable<T> task) {
+    final StorageTrace trace = current.get();
+    if (trace == null) {
+      return task;
+    }
+    return new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        current.set(trace);
+        try {
+          return task.call();
+        } finally {
+          current.remove();
+        }
+      }
+    };
+  }
+
+  /**
+   * Records a call that started at startNanos and just ended.
+   *
+   * @param key the key or keys of the call, only turned into a string if
+   *        the call is logged.
+   */
+  static void record(String op, Object key, long startNanos) {
+    StorageTrace trace = current.get();
+    if (trace != null) {
+      Call call = new Call(op, key, System.nanoTime() - startNanos);
+      synchronized (trace.calls) {
+        trace.calls.add(call);
+      }
+    }
+  }
+
+  private void report() {
+    List<Call> calls;
+    synchronized (this.calls) {
+      calls = new ArrayList<Call>(this.calls);
+    }
+    long nanos = 0;
+    Map<List<Object>, Integer> repeats = new HashMap<List<Object>, Integer>();
+    for (Call call : calls) {
+      nanos += call.nanos;
+      List<Object> opAndKey = Arrays.asList(call.op, call.key);
+      Integer count = repeats.get(opAndKey);
+      repeats.put(opAndKey, count == null ? 1 : count + 1);
+    }
+    String summary = name + ": " + calls.size() + " storage calls in "
+        + nanos / 1000000 + "ms";
+
+    if (calls.size() > BUDGET) {
+      logger.warning(summary + ", over the budget of " + BUDGET + ":\n"
+          + list(calls, MAX_LISTED));
+    }
+    for (Map.Entry<List<Object>, Integer> repeat : repeats.entrySet()) {
+      if (repeat.getValue() > 1) {
+        logger.warning(name + ": " + repeat.getKey().get(0) + " "
+            + repeat.getKey().get(1) + " called "
+            + repeat.getValue() + " times");
+      }
+    }
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine(summary + ":\n" + list(calls, calls.size()));
+    }
+  }
+
+  private static String list(List<Call> calls, int max) {
+    StringBuilder list = new StringBuilder();
+    for (int i = 0; i < calls.size() && i < max; i++) {
+      Call call = calls.get(i);
+      list.append("  ").append(call.op).append(' ').append(call.key)
+          .append(' ').append(call.nanos / 1000).append("us\n");
+    }
+    if (calls.size() > max) {
+      list.append("  ... ").append(calls.size() - max).append(" more\n");
+    }
+    return list.toString();
+  }
+
+  /** One storage call. */
+  private static class Call {
+    final String op;
+    final Object key;
+    final long nanos;
+
+    Call(String op, Object key, long nanos) {
+      this.op = op;
+      this.key = key;
+      this.nanos = nanos;
+    }
+  }
+}
@@ -54,12 +54,13 @@ public class Subscribers implements java.io.Serializable {
    */
   public static Subscribers getSubscribers() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    if (syncCache.contains(entityKind)) {
-      return (Subscribers)syncCache.get(entityKind);
+    Object cached = Storage.cacheGet(syncCache, entityKind, entityKind);
+    if (cached != null) {
+      return (Subscribers) cached;
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      Entity e = datastore.get(KeyFactory.createKey(entityKind, entityKind));
+      Entity e = Storage.get(datastore, KeyFactory.createKey(entityKind, entityKind));
       return new Subscribers(e);
     } catch (EntityNotFoundException e) {
       return new Subscribers();
@@ -105,7 +106,7 @@ public class Subscribers implements java.io.Serializable {
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      datastore.put(this.toEntity());
+      Storage.put(datastore, this.toEntity());
     } catch (Exception ex) {
       return false;
     }
@@ -156,7 +157,7 @@ public class Subscribers implements java.io.Serializable {
 
   private void addToCache() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    syncCache.put(entityKind, this);    
+    Storage.cachePut(syncCache, entityKind, this);    
   }
   
   /** Only setters and getters below. */
@@ -57,12 +57,13 @@ public class Translators implements java.io.Serializable {
    */
   public static Translators GetTranslators() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    if (syncCache.contains(entityKind)) {
-      return (Translators) syncCache.get(entityKind);
+    Object cached = Storage.cacheGet(syncCache, entityKind, entityKind);
+    if (cached != null) {
+      return (Translators) cached;
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      Entity e = datastore.get(KeyFactory.createKey(entityKind, entityKind));
+      Entity e = Storage.get(datastore, KeyFactory.createKey(entityKind, entityKind));
       return new Translators(e);
     } catch (EntityNotFoundException e) {
       return new Translators();
@@ -122,7 +123,7 @@ public class Translators implements java.io.Serializable {
     }
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     try {
-      datastore.put(this.toEntity());
+      Storage.put(datastore, this.toEntity());
     } catch (Exception ex) {
       return false;
     }
@@ -178,7 +179,7 @@ public class Translators implements java.io.Serializable {
 
   private void addToCache() {
     MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
-    syncCache.put(entityKind, this);
+    Storage.cachePut(syncCache, entityKind, this);
   }
 
   /** Only setters and getters below. */
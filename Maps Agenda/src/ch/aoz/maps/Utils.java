@@ -1,36 +1,14 @@
 package ch.aoz.maps;
 
-import java.util.Arrays;
-import java.util.List;
-
 public class Utils {
+  /**
+   * Escapes s to be used in a JSON string, see Escaping.json().
+   * Returns "" for null.
+   */
   public static String toUnicode(String s) {
-    StringBuilder b = new StringBuilder();
-    List<Character> forbiddenChars  = Arrays.asList('"', '\\', '/');
-    if (s != null && s.length() > 0) {
-      for (char c : s.toCharArray()) {
-        if (c == '\n') {
-          b.append("\\n");
-        } else if (c == '\r') {
-          b.append("\\r");
-        } else if ((c > 32 && c < 128 && !forbiddenChars.contains(c)) || c == ' ') {
-          b.append(c);
-        } else {
-          b.append("\\u");
-          
-          String hex = Integer.toHexString(c);
-          if (hex.length() < 4) {
-            for (int i = hex.length(); i < 4; ++i) {
-              b.append('0');
-            }
-          }
-          b.append(hex);
-        }
-      }
-    }
-    return b.toString();      
+    return Escaping.json(s);
   }
-  
+
   /**
    * Replaces all non-standard double quote characters by "programmer's
    * double quotes". To be used in event titles.
@@ -39,25 +17,76 @@ public class Utils {
    */
   public static String replaceDoubleQuotes(String s) {
     if (s == null || s.isEmpty()) {
-	return "";
+      return "";
+    }
+    char[] chars = null;
+    for (int i = 0; i < s.length(); i++) {
+      if (isDoubleQuote(s.charAt(i))) {
+        if (chars == null) {
+          chars = s.toCharArray();
+        }
+        chars[i] = '"';
+      }
+    }
+    return chars == null ? s : new String(chars);
+  }
+
+  /**
+   * Brings text entered by admins and translators to the form it is stored
+   * in: trimmed, with all double quotes replaced by " (see
+   * replaceDoubleQuotes), and without control characters other than tabs and
+   * line breaks. Those would break the packed representation in the
+   * datastore, which uses the record separator.
+   *
+   * @param s text, may be null
+   * @return the normalized text, "" for null
+   */
+  public static String normalizeText(String s) {
+    if (s == null) {
+      return "";
+    }
+    s = s.trim();
+    if (s.isEmpty()) {
+      return "";
+    }
+    StringBuilder b = null;
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      boolean drop = c < ' ' && c != '\n' && c != '\r' && c != '\t';
+      boolean quote = isDoubleQuote(c);
+      if (b == null) {
+        if (!drop && !quote) {
+          continue;
+        }
+        b = new StringBuilder(s.length());
+        b.append(s, 0, i);
+      }
+      if (quote) {
+        b.append('"');
+      } else if (!drop) {
+        b.append(c);
+      }
+    }
+    return b == null ? s : b.toString();
+  }
+
+  private static boolean isDoubleQuote(char c) {
+    switch (c) {
+      case '\u00ab':  // <<
+      case '\u00bb':  // >>
+      case '\u201c':  // " left high
+      case '\u201d':  // " right high
+      case '\u201e':  // " left low
+      case '\u2039':  // <
+      case '\u203a':  // >
+      case '\u201f':  // " bold
+      case '\u301e':  // " high asian
+      case '\u301f':  // " low asian
+      case '\u301d':  // " bold asian
+      case '\uff02':  // " full width
+        return true;
+      default:
+        return false;
     }
-    
-    /* In order:
-     * U+00ab  <<
-     * U+00bb  >>
-     * U+201c  " left high
-     * U+201d  " right high
-     * U+201e  " left low
-     * U+2039  <
-     * U+203A  >
-     * U+201f  " bold
-     * U+301e  " high asian
-     * U+301f  " low asian
-     * U+301d  " bold asian
-     * U+ff02  " full width
-     */
-    return s.replaceAll("\u00ab|\u00bb|\u201c|\u201d|\u201e|\u2039|\u203a|" +
-                        "\u201f|\u301e|\u301f|\u301d|\uff02",
-                        "\"");
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,88 @@
+package ch.aoz.maps;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads what the public pages need before the instance takes traffic: the
+ * languages, the phrases of every language and the events and descriptions
+ * of the current and next month. Whatever isn't in memcache yet is read from
+ * the datastore, which caches it, and the merged phrases are built in the
+ * instance.
+ *
+ * Runs once per instance, from the /_ah/warmup request App Engine sends
+ * before the instance takes traffic, see Maps_WarmupServlet. Instances that
+ * get no warmup request load all this lazily instead: their first public
+ * request would otherwise wait for everything.
+ */
+public class Warmup {
+  private static final Logger logger = Logger.getLogger(Warmup.class.getName());
+
+  private static String report = null;
+
+  /**
+   * Preloads, unless it was already done on this instance.
+   *
+   * @return what was loaded, and how long it took.
+   */
+  public static synchronized String run() {
+    if (report != null) {
+      return report;
+    }
+    long start = System.currentTimeMillis();
+    final List<String> langs = new ArrayList<String>();
+    for (Language l : Languages.GetLanguages().getSortedLanguages()) {
+      langs.add(l.getCode());
+    }
+
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (final String lang : langs) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          Phrases.getMergedPhrases(lang);
+          return null;
+        }
+      });
+    }
+    Calendar month = Calendar.getInstance();
+    month.set(Calendar.DATE, 1);
+    for (int i = 0; i < 2; i++) {
+      final Calendar c = (Calendar) month.clone();
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          Events.getEvents(c);
+          EventDescriptions.getDescriptions(langs, c);
+          return null;
+        }
+      });
+      month.add(Calendar.MONTH, 1);
+    }
+    Parallel.invokeAll(tasks);
+
+    long end = System.currentTimeMillis();
+    long jvmStart = getJvmStartMillis();
+    report = "Ready in " + (end - start) + "ms, "
+        + (jvmStart < 0 ? "unknown time" : (end - jvmStart) + "ms")
+        + " after JVM start: " + langs.size() + " languages and 2 months loaded";
+    logger.info(report);
+    return report;
+  }
+
+  /** @return when the JVM of this instance started, or -1 if unknown. */
+  private static long getJvmStartMillis() {
+    try {
+      return ManagementFactory.getRuntimeMXBean().getStartTime();
+    } catch (RuntimeException | LinkageError e) {
+      // java.lang.management isn't on the JRE whitelist of the Java 7 runtime.
+      logger.log(Level.FINE, "No JVM start time", e);
+      return -1;
+    }
+  }
+}
@@ -1,11 +1,15 @@
 package ch.aoz.maps;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 public class XMLExport {
   private Calendar selected_month;
@@ -56,74 +60,146 @@ public class XMLExport {
   }
   
   /**
-   * Render this Event into an XML tag.
+   * Render this export into an XML document.
    *
-   * @return the generated XML tag.
+   * @return the generated XML document.
    */
   public String getXML() {
-    // Header.
-    String xml = new String("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
-    xml += "<Root>";
-    xml += "<Tag1>";
+    StringWriter xml = new StringWriter();
+    try {
+      write(xml);
+    } catch (IOException e) {
+      // StringWriter doesn't throw.
+      throw new IllegalStateException(e);
+    }
+    return xml.toString();
+  }
 
+  /**
+   * Writes this export as an XML document to out.
+   *
+   * The descriptions of all the languages are loaded in one batch, then the
+   * block of each language is rendered in parallel. The blocks are written
+   * in the order of the languages once they are all done.
+   */
+  public void write(Writer out) throws IOException {
     List<Language> orderedLanguages = new ArrayList<Language>();
     orderedLanguages.addAll(Language.getAllLanguages());
     Collections.sort(orderedLanguages);
+    loadDescriptions(orderedLanguages);
+
+    // Each worker gets its own copy of the events: reading the Calendar of a
+    // shared Event may update its internal fields.
+    List<Callable<String>> tasks = new ArrayList<Callable<String>>();
     for (Language language : orderedLanguages) {
-      // For the rendering of the languages, the code must be translated into
-      // the Standardized representation.
-      xml += "<" + language.getStandardizedLanguageCode() + ">";
-      xml += "<inh>";
+      tasks.add(languageTask(language, cloneAll(topicOfMonth), cloneAll(events)));
+    }
+    List<String> blocks = Parallel.invokeAll(tasks);
 
-      // Topic of the month.
-      for (Event event : topicOfMonth) {
-        EventDescription description = getDescription(event, language);
-        if (description == null)
-          continue;
-        xml += new XMLExportEntry(event, language, description, true, true, false).getXML();
-      }
+    // Header.
+    out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    out.write("<Root>");
+    out.write("<Tag1>");
+    for (String block : blocks) {
+      out.write(block);
+    }
+    out.write("</Tag1>");
 
-      // Log the date to detect when the day changes.
-      Calendar currentDay = Calendar.getInstance();
-      currentDay.clear();
-      currentDay.set(1900, Calendar.JANUARY, 1);
+    // Images.
+    writeXMLImages(out);
 
-      // Each entry.
-      for (Event event : events) {
-        EventDescription description = getDescription(event, language);
-        if (description == null)
-          continue;
+    out.write("</Root>");
+  }
 
-        // Find out if the date changed between events.
-        Calendar newDay = Calendar.getInstance();
-        newDay.clear();
-        newDay.setTime(event.getDate());
-        boolean dateChanged =
-            newDay.get(Calendar.DAY_OF_MONTH) != currentDay.get(Calendar.DAY_OF_MONTH)
-            || newDay.get(Calendar.MONTH) != currentDay.get(Calendar.MONTH)
-            || newDay.get(Calendar.YEAR) != currentDay.get(Calendar.YEAR);
-
-        // Add the entry for this event.
-        xml += new XMLExportEntry(event,
-            language,
-            description,
-            dateChanged,
-            highlighted.contains(event.getKey()),
-            true).getXML();
-
-        // Log the new date.
-        currentDay.setTime(newDay.getTime());
+  private Callable<String> languageTask(final Language language,
+      final List<Event> topicOfMonth, final List<Event> events) {
+    return new Callable<String>() {
+      @Override
+      public String call() throws IOException {
+        Profiling.Span span = Profiling.begin(Profiling.EXPORT,
+            language.getCode(), Integer.toString(events.size()));
+        try {
+          StringWriter block = new StringWriter();
+          writeLanguage(block, language, topicOfMonth, events);
+          return block.toString();
+        } finally {
+          span.end();
+        }
       }
-      xml += "</inh>";
-      xml += "</" + language.getStandardizedLanguageCode() + ">";
+    };
+  }
+
+  private static List<Event> cloneAll(List<Event> events) {
+    List<Event> clones = new ArrayList<Event>(events.size());
+    for (Event e : events) {
+      clones.add(e.clone());
     }
-    xml += "</Tag1>";
+    return clones;
+  }
 
-    // Images.
-    xml += getXMLImages();
+  /**
+   * Writes the &lt;lang&gt;&lt;inh&gt;...&lt;/inh&gt;&lt;/lang&gt; block of
+   * one language. Only reads the descriptions, which must already be loaded.
+   */
+  private void writeLanguage(Writer out, Language language,
+      List<Event> topicOfMonth, List<Event> events) throws IOException {
+    // For the rendering of the languages, the code must be translated into
+    // the Standardized representation.
+    out.write("<" + language.getStandardizedLanguageCode() + ">");
+    out.write("<inh>");
+
+    // Topic of the month.
+    for (Event event : topicOfMonth) {
+      EventDescription description = getDescription(event, language);
+      if (description == null)
+        continue;
+      new XMLExportEntry(event, language, description, true, true, false).writeCached(out);
+    }
+
+    // Log the date to detect when the day changes.
+    Calendar currentDay = Calendar.getInstance();
+    currentDay.clear();
+    currentDay.set(1900, Calendar.JANUARY, 1);
+
+    // Each entry.
+    for (Event event : events) {
+      EventDescription description = getDescription(event, language);
+      if (description == null)
+        continue;
 
-    xml += "</Root>";
-    return xml;
+      // Find out if the date changed between events.
+      Calendar newDay = Calendar.getInstance();
+      newDay.clear();
+      newDay.setTime(event.getDate());
+      boolean dateChanged =
+          newDay.get(Calendar.DAY_OF_MONTH) != currentDay.get(Calendar.DAY_OF_MONTH)
+          || newDay.get(Calendar.MONTH) != currentDay.get(Calendar.MONTH)
+          || newDay.get(Calendar.YEAR) != currentDay.get(Calendar.YEAR);
+
+      // Add the entry for this event.
+      new XMLExportEntry(event,
+          language,
+          description,
+          dateChanged,
+          highlighted.contains(event.getKey()),
+          true).writeCached(out);
+
+      // Log the new date.
+      currentDay.setTime(newDay.getTime());
+    }
+    out.write("</inh>");
+    out.write("</" + language.getStandardizedLanguageCode() + ">");
+  }
+
+  /** Loads the descriptions of all the languages at once. */
+  private void loadDescriptions(List<Language> languages) {
+    List<String> codes = new ArrayList<String>();
+    for (Language language : languages) {
+      if (!descriptions.containsKey(language.getCode())) {
+        codes.add(language.getCode());
+      }
+    }
+    descriptions.putAll(EventDescriptions.getDescriptions(codes, selected_month));
   }
 
   /**
@@ -141,22 +217,19 @@ public class XMLExport {
   }
 
   /**
-   * Adds XML tags for image pages.
-   *
-   * @return The XML tag tree for all requested images, plus an "individual" item for manual
-   *         editing.
+   * Adds XML tags for image pages: the tag tree for all requested images,
+   * plus an "individual" item for manual editing.
    */
-  private String getXMLImages() {
-    String xml = new String();
-    xml += "<bildtexte>";
+  private void writeXMLImages(Writer out) throws IOException {
+    out.write("<bildtexte>");
     for (Event event : images) {
       Calendar calendar = event.getCalendar();
       String day = String.format("%02d", calendar.get(Calendar.DAY_OF_MONTH));
       String month = String.format("%02d", calendar.get(Calendar.MONTH) + 1);
-      xml += "<bild_" + day + "_" + month + ">";
+      out.write("<bild_" + day + "_" + month + ">");
+      writeXMLImageTagStart(out, day, month);
 
-      String imageText = new String();
-      
+      boolean first = true;
       List<Language> orderedLanguages = new ArrayList<Language>();
       orderedLanguages.addAll(Language.getAllLanguages());
       Collections.sort(orderedLanguages);
@@ -164,45 +237,48 @@ public class XMLExport {
         EventDescription description = getDescription(event, language);
         if (description == null)
           continue;
-        String translatedTitle = new String("<b_titel aid:cstyle=\"bildtitel"
-            + language.getXMLFormatSupplement() + "\">" + XMLExportEntry.escapeXML(description.getTitle()) + "</b_titel>");
-        if (imageText.length() > 0) {
-          imageText += "<space aid:cstyle=\"space\" > </space>";
+        if (!first) {
+          out.write("<space aid:cstyle=\"space\" > </space>");
         }
-        imageText += translatedTitle;
+        first = false;
+        out.write("<b_titel aid:cstyle=\"bildtitel"
+            + language.getXMLFormatSupplement() + "\">");
+        XMLExportEntry.writeEscapedXML(out, description.getTitle());
+        out.write("</b_titel>");
       }
-      xml += getXMLImageTag(day, month, imageText);
-      xml += "</bild_" + day + "_" + month + ">";
+      writeXMLImageTagEnd(out);
+      out.write("</bild_" + day + "_" + month + ">");
     }
 
-    xml += "<individuell>";
-    xml +=
-        getXMLImageTag("03", "12", "<b_titel aid:cstyle=\"bildtitel\">Text text text...</b_titel>");
-    xml += "</individuell>";
-    xml += "</bildtexte>";
-    return xml;
+    out.write("<individuell>");
+    writeXMLImageTagStart(out, "03", "12");
+    out.write("<b_titel aid:cstyle=\"bildtitel\">Text text text...</b_titel>");
+    writeXMLImageTagEnd(out);
+    out.write("</individuell>");
+    out.write("</bildtexte>");
   }
 
   /**
-   * Render an XML image tag tree into a string.
+   * Writes the start of an XML image tag tree, up to where the b_titel tags
+   * go, in the innermost level.
    *
    * @param day A two-digit string that describes the day of the month.
    * @param month A two-digit string that describes the month in the year.
-   * @param bTitelTag The b_titel tag that goes into the innermost level.
-   * @return A string with the requested tag.
    */
-  private static String getXMLImageTag(String day, String month, String bTitelTag) {
-    String xml = new String();
-    xml +=
-        "<Table_main xmlns:aid5=\"http://ns.adobe.com/AdobeInDesign/5.0/\" aid5:tablestyle=\"ts_main\" xmlns:aid=\"http://ns.adobe.com/AdobeInDesign/4.0/\" aid:table=\"table\" aid:trows=\"1\" aid:tcols=\"1\">";
-    xml +=
-        "<Tag_main aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"1\" aid:ccolwidth=\"450\" aid5:cellstyle=\"cs_bildtitel\">";
-    xml += "<bilddatum aid:pstyle=\"bilddatum\">" + day + "." + month + ".</bilddatum>\n";
-    xml += "<p_titel aid:pstyle=\"bildtitel\">";
-    xml += bTitelTag;
-    xml += "</p_titel>";
-    xml += "</Tag_main>";
-    xml += "</Table_main>";
-    return xml;
+  private static void writeXMLImageTagStart(Writer out, String day, String month)
+      throws IOException {
+    out.write(
+        "<Table_main xmlns:aid5=\"http://ns.adobe.com/AdobeInDesign/5.0/\" aid5:tablestyle=\"ts_main\" xmlns:aid=\"http://ns.adobe.com/AdobeInDesign/4.0/\" aid:table=\"table\" aid:trows=\"1\" aid:tcols=\"1\">");
+    out.write(
+        "<Tag_main aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"1\" aid:ccolwidth=\"450\" aid5:cellstyle=\"cs_bildtitel\">");
+    out.write("<bilddatum aid:pstyle=\"bilddatum\">" + day + "." + month + ".</bilddatum>\n");
+    out.write("<p_titel aid:pstyle=\"bildtitel\">");
+  }
+
+  /** Writes the end of an XML image tag tree, see writeXMLImageTagStart. */
+  private static void writeXMLImageTagEnd(Writer out) throws IOException {
+    out.write("</p_titel>");
+    out.write("</Tag_main>");
+    out.write("</Table_main>");
   }
 }
@@ -1,8 +1,16 @@
 package ch.aoz.maps;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Calendar;
 
 public class XMLExportEntry {
+	// Rendered entries, shared by all the exports of the instance. See
+	// writeCached().
+	private static final FragmentCache<String> CACHE =
+			new FragmentCache<String>(4096);
+
 	private Event event;
 	private Language language;
 	private EventDescription description;
@@ -43,138 +51,180 @@ public class XMLExportEntry {
 	 * @return The XML description of the event in the chosen language.
 	 */
 	public String getXML() {
-		String xml = new String();
+		StringWriter xml = new StringWriter();
+		try {
+			write(xml);
+		} catch (IOException e) {
+			// StringWriter doesn't throw.
+			throw new IllegalStateException(e);
+		}
+		return xml.toString();
+	}
 
+	/**
+	 * Same as write(), but reuses the XML rendered for an entry with the same
+	 * inputs, if any. The print team exports the same month many times while
+	 * choosing the large, topic of the month and image entries.
+	 */
+	public void writeCached(Writer out) throws IOException {
+		String key = cacheKey();
+		String xml = CACHE.get(key);
+		if (xml == null) {
+			xml = getXML();
+			CACHE.put(key, xml);
+		}
+		out.write(xml);
+	}
+
+	/** Forgets the rendered entries, so that the next exports start cold. */
+	static void clearCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * @return a key covering everything the XML of this entry is rendered
+	 *         from: the content of the event and its description, the parts
+	 *         of the language that are used and the flags.
+	 */
+	private String cacheKey() {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(event.getDate());
+		int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK) - 1;
+		return FragmentCache.contentKey("xml",
+				Boolean.toString(language.isRightToLeft()),
+				language.getXMLFormatSupplement(),
+				topicOfMonth ? language.getDayOfTheWeek(dayOfWeek) : "",
+				Integer.toString(calendar.get(Calendar.DAY_OF_MONTH)),
+				Integer.toString(calendar.get(Calendar.MONTH)),
+				description.getTitle(), description.getDesc(),
+				event.getLocation(), event.getTransit(), event.getUrl(),
+				Boolean.toString(enlarge), Boolean.toString(dateChanged),
+				Boolean.toString(topicOfMonth));
+	}
+
+	/**
+	 * Writes the XML description of the event in the chosen language to out.
+	 */
+	public void write(Writer out) throws IOException {
 		if (!enlarge) {
-			xml += "<Table_inside xmlns:aid5=\"http://ns.adobe.com/AdobeInDesign/5.0/\" aid5:tablestyle=\"ts_inside\" xmlns:aid=\"http://ns.adobe.com/AdobeInDesign/4.0/\" aid:table=\"table\" aid:trows=\"1\" aid:tcols=\"3\">";
+			out.write("<Table_inside xmlns:aid5=\"http://ns.adobe.com/AdobeInDesign/5.0/\" aid5:tablestyle=\"ts_inside\" xmlns:aid=\"http://ns.adobe.com/AdobeInDesign/4.0/\" aid:table=\"table\" aid:trows=\"1\" aid:tcols=\"3\">");
 			if (!language.isRightToLeft()) {
-				xml += getXMLDayOfWeek();
-				xml += getXMLDate();
-				xml += getXMLSmallContents(358);
+				writeXMLDayOfWeek(out);
+				writeXMLDate(out);
+				writeXMLSmallContents(out, 358);
 			} else {
-				xml += getXMLSmallContents(374);
-				xml += getXMLDate();
-				xml += getXMLDayOfWeek();
+				writeXMLSmallContents(out, 374);
+				writeXMLDate(out);
+				writeXMLDayOfWeek(out);
 			}
 		} else {
-			xml += "<Table_inside xmlns:aid5=\"http://ns.adobe.com/AdobeInDesign/5.0/\" aid5:tablestyle=\"ts_inside\" xmlns:aid=\"http://ns.adobe.com/AdobeInDesign/4.0/\" aid:table=\"table\" aid:trows=\"2\" aid:tcols=\"3\">";
+			out.write("<Table_inside xmlns:aid5=\"http://ns.adobe.com/AdobeInDesign/5.0/\" aid5:tablestyle=\"ts_inside\" xmlns:aid=\"http://ns.adobe.com/AdobeInDesign/4.0/\" aid:table=\"table\" aid:trows=\"2\" aid:tcols=\"3\">");
 			if (!language.isRightToLeft()) {
-				xml += getXMLDayOfWeek();
-				xml += getXMLDate();
-				xml += getXMLTitle(303);
+				writeXMLDayOfWeek(out);
+				writeXMLDate(out);
+				writeXMLTitle(out, 303);
 			} else {
-				xml += getXMLTitle(374);
-				xml += getXMLDate();
-				xml += getXMLDayOfWeek();
+				writeXMLTitle(out, 374);
+				writeXMLDate(out);
+				writeXMLDayOfWeek(out);
 			}
-			xml += "<Tag_inside aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"3\" aid5:cellstyle=\"cs_desc_gross\">";
-			xml += "<Inhalttag aid:pstyle=\"inhalt_gross"
-					+ language.getXMLFormatSupplement() + "\">";
-			xml += escapeXML(description.getDesc());
-			xml += "</Inhalttag>\n";
-			xml += getXMLLocation();
-			xml += "</Tag_inside>";
+			out.write("<Tag_inside aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"3\" aid5:cellstyle=\"cs_desc_gross\">");
+			out.write("<Inhalttag aid:pstyle=\"inhalt_gross"
+					+ language.getXMLFormatSupplement() + "\">");
+			writeEscapedXML(out, description.getDesc());
+			out.write("</Inhalttag>\n");
+			writeXMLLocation(out);
+			out.write("</Tag_inside>");
 		}
 
-		xml += "</Table_inside>";
-		return xml;
+		out.write("</Table_inside>");
 	}
 
-	private String getXMLSmallContents(int width) {
-		String xml = new String();
-		xml += "<Tag_inside aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"1\" aid:ccolwidth=\"" + width + "\" aid5:cellstyle=\"cs_desc\">";
-		xml += "<title aid:pstyle=\"titel" + language.getXMLFormatSupplement()
-				+ "\">";
-		xml += escapeXML(description.getTitle());
-		xml += "</title>\n";
-		xml += "<Inhalttag aid:pstyle=\"inhalt"
-				+ language.getXMLFormatSupplement() + "\">";
-		xml += escapeXML(description.getDesc());
-		xml += "</Inhalttag>\n";
-		xml += getXMLLocation();
-		xml += "</Tag_inside>";
-		return xml;
+	private void writeXMLSmallContents(Writer out, int width) throws IOException {
+		out.write("<Tag_inside aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"1\" aid:ccolwidth=\"" + width + "\" aid5:cellstyle=\"cs_desc\">");
+		out.write("<title aid:pstyle=\"titel" + language.getXMLFormatSupplement()
+				+ "\">");
+		writeEscapedXML(out, description.getTitle());
+		out.write("</title>\n");
+		out.write("<Inhalttag aid:pstyle=\"inhalt"
+				+ language.getXMLFormatSupplement() + "\">");
+		writeEscapedXML(out, description.getDesc());
+		out.write("</Inhalttag>\n");
+		writeXMLLocation(out);
+		out.write("</Tag_inside>");
 	}
 
-	private String getXMLDayOfWeek() {
-		String xml = new String();
+	private void writeXMLDayOfWeek(Writer out) throws IOException {
 		Calendar calendar = Calendar.getInstance();
 		calendar.setTime(event.getDate());
-		xml += "<Tag_inside aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"1\" aid:ccolwidth=\""
+		out.write("<Tag_inside aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"1\" aid:ccolwidth=\""
 				+ (language.isRightToLeft() ? "45" : "52")
 				+ "\" aid5:cellstyle=\""
 				+ (enlarge ? "cs_gross" : "cs_datum")
 				+ "\" aid:pstyle=\"wochentag"
-				+ language.getXMLFormatSupplement() + "\">";
-		xml += "<Wochentag>";
+				+ language.getXMLFormatSupplement() + "\">");
+		out.write("<Wochentag>");
 		if (topicOfMonth) {
-			xml += language
-					.getDayOfTheWeek(calendar.get(Calendar.DAY_OF_WEEK) - 1);
+			out.write(String.valueOf(language
+					.getDayOfTheWeek(calendar.get(Calendar.DAY_OF_WEEK) - 1)));
 		}
-		xml += "</Wochentag>";
-		xml += "</Tag_inside>";
-		return xml;
+		out.write("</Wochentag>");
+		out.write("</Tag_inside>");
 	}
 
-	private String getXMLDate() {
-		String xml = new String();
+	private void writeXMLDate(Writer out) throws IOException {
 		Calendar calendar = Calendar.getInstance();
 		calendar.setTime(event.getDate());
-		xml += "<Tag_inside aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"1\" aid:ccolwidth=\"40\" aid5:cellstyle=\""
+		out.write("<Tag_inside aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"1\" aid:ccolwidth=\"40\" aid5:cellstyle=\""
 				+ (enlarge ? "cs_gross" : "cs_datum")
-				+ "\" aid:pstyle=\"datum\">";
+				+ "\" aid:pstyle=\"datum\">");
 		if (!enlarge || dateChanged) {
-			xml += " " + String.format("%02d", calendar.get(Calendar.DAY_OF_MONTH))
+			out.write(" " + String.format("%02d", calendar.get(Calendar.DAY_OF_MONTH))
 					+ "." + String.format("%02d", calendar.get(Calendar.MONTH) + 1)
-					+ ". ";
+					+ ". ");
 		}
-		xml += "</Tag_inside>";
-		return xml;
+		out.write("</Tag_inside>");
 	}
 
-	private String getXMLTitle(int width) {
-		String xml = new String();
-		xml += "<Tag_inside aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"1\" aid:ccolwidth=\""
+	private void writeXMLTitle(Writer out, int width) throws IOException {
+		out.write("<Tag_inside aid:table=\"cell\" aid:crows=\"1\" aid:ccols=\"1\" aid:ccolwidth=\""
 				+ Integer.toString(width)
-				+ "\" aid5:cellstyle=\"cs_titel_gross\">";
-		xml += "<title aid:pstyle=\"titel" + language.getXMLFormatSupplement()
-				+ "\">";
-		xml += escapeXML(description.getTitle());
-		xml += "</title>";
-		xml += "</Tag_inside>";
-		return xml;
+				+ "\" aid5:cellstyle=\"cs_titel_gross\">");
+		out.write("<title aid:pstyle=\"titel" + language.getXMLFormatSupplement()
+				+ "\">");
+		writeEscapedXML(out, description.getTitle());
+		out.write("</title>");
+		out.write("</Tag_inside>");
 	}
 
-	private String getXMLLocation() {
-		String xml = new String();
-		if (event.getLocation() != "") {
+	private void writeXMLLocation(Writer out) throws IOException {
+		if (!event.getLocation().isEmpty()) {
 			if (enlarge) {
 				if (language.isRightToLeft()) {
-					xml += "<Orttag aid:pstyle=\"ort_gross_rtl";
+					out.write("<Orttag aid:pstyle=\"ort_gross_rtl");
 				} else {
-					xml += "<Orttag aid:pstyle=\"ort_gross";
+					out.write("<Orttag aid:pstyle=\"ort_gross");
 				}
 			} else {
 				if (language.isRightToLeft()) {
-					xml += "<Orttag aid:pstyle=\"ort_rtl";
+					out.write("<Orttag aid:pstyle=\"ort_rtl");
 				} else {
-					xml += "<Orttag aid:pstyle=\"ort";
+					out.write("<Orttag aid:pstyle=\"ort");
 				}
 			}
-			// TODO remove special hack for _ru.
-			xml += (language.getXMLFormatSupplement() == "_ru" ? language
-					.getXMLFormatSupplement() : "") + "\">";
-			xml += escapeXML(event.getLocation().trim()) + " ";
-			if (event.getTransit() != null && event.getTransit() != "") {
-			    xml += escapeXML(event.getTransit().trim()) + " ";
+			out.write("\">");
+			writeEscapedXML(out, event.getLocation().trim());
+			out.write(" ");
+			if (event.getTransit() != null && !event.getTransit().isEmpty()) {
+				writeEscapedXML(out, event.getTransit().trim());
+				out.write(" ");
 			}
 
-			if (event.getUrl() != null && event.getUrl() != "") {
-				xml += event.getUrl().replace("http://www", "www").trim();
+			if (event.getUrl() != null && !event.getUrl().isEmpty()) {
+				out.write(event.getUrl().replace("http://www", "www").trim());
 			}
-			xml += "</Orttag>";
+			out.write("</Orttag>");
 		}
-		return xml;
 	}
 	
     /**
@@ -186,16 +236,23 @@ public class XMLExportEntry {
      * @return the sanitized content
      */
     public static final String escapeXML(String content) {
-	if (content != null) {
-	    // Because Indesign may interpret things on its own way, we do not
-	    // replace anything else than the things that are known to cause
-	    // problems. Please supplement this list with other failing
-	    // characters.
-	    content = content.replace("&", "&amp;");
-	    content = content.replace("<", "&lt;");
-	    content = content.replace(">", "&gt;");
-	    content = content.replace("\"", "&quot;");
+	// Because Indesign may interpret things on its own way, we do not
+	// replace anything else than the things that are known to cause
+	// problems. Please supplement the list in Escaping with other failing
+	// characters.
+	return Escaping.xml(content);
+    }
+
+    /**
+     * Writes content to out, escaped like escapeXML() does, in a single pass.
+     * Like string concatenation, writes "null" for a null content.
+     */
+    public static final void writeEscapedXML(Writer out, String content)
+	    throws IOException {
+	if (content == null) {
+	    out.write("null");
+	    return;
 	}
-	return content;
-    }    
+	Escaping.appendXml(out, content);
+    }
 }
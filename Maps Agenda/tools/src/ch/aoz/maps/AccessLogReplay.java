@@ -0,0 +1,213 @@
+package ch.aoz.maps;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the requests logged by AccessLogFilter against a running server,
+ * with their original spacing in time, and prints the p50/p95/p99 latencies
+ * per path and type.
+ *
+ *   java ch.aoz.maps.AccessLogReplay --log access.log --url http://localhost:8888
+ *       [--speed 1] [--threads 200] [--out latencies.tsv]
+ *   java ch.aoz.maps.AccessLogReplay --compare before.tsv after.tsv
+ *
+ * The log is any text with one logged line per line, e.g. a download of the
+ * request logs: everything before "access" is ignored. --speed 10 replays ten
+ * times faster than the original traffic. Only GETs are replayed, the writes
+ * are skipped and counted.
+ *
+ * Like LoadTest, requests are sent open loop and latencies are measured from
+ * when a request was due. To compare two builds, replay the same log against
+ * each with --out, then --compare the two files.
+ */
+public class AccessLogReplay {
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<String, String>();
+    options.put("speed", "1");
+    options.put("threads", "200");
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("--")) {
+        throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+      }
+      if (args[i].equals("--compare") && i + 2 < args.length) {
+        LatencyRecorder.printComparison(LatencyRecorder.load(args[i + 1]),
+            LatencyRecorder.load(args[i + 2]));
+        return;
+      }
+      options.put(args[i].substring(2), args[i + 1]);
+    }
+    if (!options.containsKey("log") || !options.containsKey("url")) {
+      throw new IllegalArgumentException("--log and --url are required");
+    }
+
+    List<Entry> entries = parse(options.get("log"));
+    if (entries.isEmpty()) {
+      System.out.println("No requests to replay.");
+      return;
+    }
+    double speed = Double.parseDouble(options.get("speed"));
+    long span = entries.get(entries.size() - 1).time - entries.get(0).time;
+    System.out.println(String.format("Replaying %d requests over %.1fs...",
+        entries.size(), span / 1000.0 / speed));
+    Map<String, LatencyRecorder> recorders = replay(entries, options.get("url"),
+        speed, Integer.parseInt(options.get("threads")));
+    LatencyRecorder.printTable(recorders, Math.max(span / 1000.0 / speed, 1));
+    if (options.containsKey("out")) {
+      LatencyRecorder.save(recorders, options.get("out"));
+    }
+  }
+
+  /** @return the GETs of the log, sorted by time. */
+  private static List<Entry> parse(String file) throws IOException {
+    List<Entry> entries = new ArrayList<Entry>();
+    int skipped = 0;
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        int start = line.indexOf(AccessLogFilter.PREFIX + "\t");
+        if (start < 0) {
+          continue;
+        }
+        String[] fields = line.substring(start).trim().split("\t");
+        if (fields.length < 10) {
+          continue;
+        }
+        if (!fields[2].equals("GET")) {
+          skipped++;
+          continue;
+        }
+        Entry entry = new Entry(Long.parseLong(fields[1]), fields[3], fields[4],
+            fields[5], fields[6], fields[7].equals("1"));
+        // Lines logged before the paging and calendar parameters end here.
+        if (fields.length >= 14) {
+          entry.cursor = fields[10];
+          entry.size = fields[11];
+          entry.from = fields[12];
+          entry.to = fields[13];
+        }
+        entries.add(entry);
+      }
+    }
+    if (skipped > 0) {
+      System.out.println("Skipped " + skipped + " writes.");
+    }
+    Collections.sort(entries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry a, Entry b) {
+        return Long.compare(a.time, b.time);
+      }
+    });
+    return entries;
+  }
+
+  private static Map<String, LatencyRecorder> replay(List<Entry> entries,
+      String baseUrl, double speed, int threads) throws InterruptedException {
+    final Map<String, LatencyRecorder> recorders =
+        new TreeMap<String, LatencyRecorder>();
+    for (Entry entry : entries) {
+      if (!recorders.containsKey(entry.kind())) {
+        recorders.put(entry.kind(), new LatencyRecorder());
+      }
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    long first = entries.get(0).time;
+    long start = System.nanoTime();
+    for (Entry entry : entries) {
+      final long due = start
+          + (long) (TimeUnit.MILLISECONDS.toNanos(entry.time - first) / speed);
+      long wait = due - System.nanoTime();
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+      final LoadTest.Request request =
+          new LoadTest.Request(baseUrl + entry.url(), null);
+      final LatencyRecorder recorder = recorders.get(entry.kind());
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          boolean ok = request.send();
+          recorder.record(System.nanoTime() - due, ok);
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(5, TimeUnit.MINUTES);
+    return recorders;
+  }
+
+  /** One logged request. */
+  private static class Entry {
+    final long time;
+    final String path;
+    final String type;
+    final String lang;
+    final String date;
+    final boolean back;
+    String cursor = "-";
+    String size = "-";
+    String from = "-";
+    String to = "-";
+
+    Entry(long time, String path, String type, String lang, String date,
+        boolean back) {
+      this.time = time;
+      this.path = path;
+      this.type = type;
+      this.lang = lang;
+      this.date = date;
+      this.back = back;
+    }
+
+    /** What latencies are grouped by. */
+    String kind() {
+      return path + " " + type;
+    }
+
+    String url() {
+      StringBuilder url = new StringBuilder(path).append('?');
+      if (!type.equals("-")) {
+        url.append("type=").append(type).append('&');
+      }
+      if (!lang.equals("-")) {
+        url.append("lang=").append(lang).append('&');
+      }
+      if (!date.equals("-")) {
+        // The admin pages ask for months, the public ones for days.
+        url.append(path.startsWith("/admin/") ? "month=" : "date=")
+            .append(date).append('&');
+      }
+      if (back) {
+        url.append("back=true&");
+      }
+      if (!cursor.equals("-")) {
+        url.append("cursor=").append(cursor).append('&');
+      }
+      if (!size.equals("-")) {
+        url.append("size=").append(size).append('&');
+      }
+      if (!from.equals("-")) {
+        url.append("from=").append(from).append('&');
+      }
+      if (!to.equals("-")) {
+        url.append("to=").append(to).append('&');
+      }
+      url.setLength(url.length() - 1);
+      return url.toString();
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package ch.aoz.maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+
+/**
+ * Benchmarks of the hot paths of the app, on a SyntheticAgenda of the size
+ * given by the parameters. Datastore and memcache are the in-process ones of
+ * the App Engine SDK, so the numbers are about our code, not about RPCs.
+ *
+ *   java -cp <classpath> org.openjdk.jmh.Main AgendaBenchmark -prof gc \
+ *       -p eventsPerMonth=30,120 -p languages=16 -p textLength=300
+ *
+ * -prof gc reports the allocation rate (gc.alloc.rate.norm is the bytes
+ * allocated per operation). The newsletter and XML export benchmarks come in
+ * two variants: the warm ones reuse the fragments cached by the previous
+ * calls, like the repeated renders of a month on an instance do. The cold
+ * ones clear the fragment caches before each call, like the first render of
+ * a month does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgendaBenchmark {
+  @Param({ "30", "120" })
+  public int eventsPerMonth;
+
+  @Param({ "16" })
+  public int languages;
+
+  @Param({ "300" })
+  public int textLength;
+
+  /** Language of the non-German benchmarks. */
+  @Param({ "ar" })
+  public String lang;
+
+  private LocalServiceTestHelper helper;
+  private Calendar month;
+  private List<Event> events;
+  private List<String> packed;
+  private byte[] serialized;
+  private Events eventsDe;
+  private Events eventsLang;
+  private List<Long> keys;
+  private List<String> texts;
+  private Maps_DataServlet dataServlet;
+  private String windowStart;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+        new LocalMemcacheServiceTestConfig());
+    helper.setUp();
+
+    month = Calendar.getInstance();
+    month.clear();
+    month.set(2014, Calendar.MAY, 1);
+    Calendar nextMonth = (Calendar) month.clone();
+    nextMonth.add(Calendar.MONTH, 1);
+
+    SyntheticAgenda agenda = new SyntheticAgenda(eventsPerMonth, languages,
+        textLength, 42);
+    agenda.storeLanguages();
+    agenda.storeMonth(month);
+    agenda.storeMonth(nextMonth);
+
+    events = new ArrayList<Event>(agenda.getEvents(month));
+    packed = new ArrayList<String>();
+    keys = new ArrayList<Long>();
+    for (Event e : events) {
+      packed.add(Events.packEvent(e));
+      keys.add(e.getKey());
+    }
+    serialized = serialize(new Events(month, agenda.getEvents(month)));
+
+    eventsDe = Events.getEvents(month, "de");
+    eventsLang = eventsDe.clone();
+    eventsLang.loadDescriptions(lang);
+
+    texts = new ArrayList<String>();
+    for (Event e : eventsLang.getSortedEvents()) {
+      texts.add(e.getDescription().getTitle());
+      texts.add(e.getDescription().getDesc());
+      texts.add(e.getLocation());
+    }
+
+    dataServlet = new Maps_DataServlet();
+    // A window that spans both months.
+    windowStart = "2014-05-25";
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public void packEvents(Blackhole bh) {
+    for (Event e : events) {
+      bh.consume(Events.packEvent(e));
+    }
+  }
+
+  @Benchmark
+  public void extractEvents(Blackhole bh) {
+    for (int i = 0; i < packed.size(); i++) {
+      bh.consume(Events.extractEvent(Long.toString(keys.get(i)), month, packed.get(i)));
+    }
+  }
+
+  /** What memcache does when an Events is cached. */
+  @Benchmark
+  public byte[] serializeEvents() throws IOException {
+    return serialize(eventsDe);
+  }
+
+  /** What memcache does on each hit. */
+  @Benchmark
+  public Object deserializeEvents() throws IOException, ClassNotFoundException {
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+    try {
+      return in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Event.compareTo, as used by the TreeSet of Events. */
+  @Benchmark
+  public int compareEvents() {
+    int sum = 0;
+    for (int i = 1; i < events.size(); i++) {
+      sum += events.get(i - 1).compareTo(events.get(i));
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public Events buildEvents() {
+    Set<Event> unsorted = new LinkedHashSet<Event>(events);
+    return new Events(month, unsorted);
+  }
+
+  /** Maps_DataServlet type=events, the public agenda. */
+  @Benchmark
+  public String eventsWindow() {
+    return dataServlet.getEvents(lang, windowStart, true);
+  }
+
+  @Benchmark
+  public void toUnicode(Blackhole bh) {
+    for (String text : texts) {
+      bh.consume(Utils.toUnicode(text));
+    }
+  }
+
+  @Benchmark
+  public Map<String, Phrase> mergedPhrases() {
+    return Phrases.getMergedPhrases(lang);
+  }
+
+  /** A newsletter render, all rows cached by the previous calls. */
+  @Benchmark
+  public String newsletterWarm() {
+    return renderNewsletter();
+  }
+
+  /** The first newsletter render of a month, no row cached. */
+  @Benchmark
+  public String newsletterCold(ColdCaches cold) {
+    return renderNewsletter();
+  }
+
+  /** An XML export, all entries cached by the previous calls. */
+  @Benchmark
+  public String xmlExportWarm() {
+    return exportXml();
+  }
+
+  /** The first XML export of a month, no entry cached. */
+  @Benchmark
+  public String xmlExportCold(ColdCaches cold) {
+    return exportXml();
+  }
+
+  /**
+   * Clears the fragment caches before each call of the benchmarks that take
+   * it. A state of its own, so that the other benchmarks don't pay for it.
+   */
+  @State(Scope.Thread)
+  public static class ColdCaches {
+    @Setup(Level.Invocation)
+    public void clear() {
+      NewsletterExport.clearCache();
+      XMLExportEntry.clearCache();
+    }
+  }
+
+  private String renderNewsletter() {
+    return new NewsletterExport(eventsDe, eventsLang, lang, "http://localhost:8888",
+        month.get(Calendar.YEAR), month.get(Calendar.MONTH), null).render();
+  }
+
+  private String exportXml() {
+    List<Long> none = new ArrayList<Long>();
+    return new XMLExport(month, keys, keys.subList(0, 1), none, none).getXML();
+  }
+
+  private static byte[] serialize(Object o) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    try {
+      out.writeObject(o);
+    } finally {
+      out.close();
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,153 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Escaping, per context, against the escapers it replaced. Each context is
+ * measured on plain ASCII, on text with characters to escape, and on text in
+ * a non-Latin script, since that is what most translations are.
+ *
+ *   java -cp <classpath> org.openjdk.jmh.Main EscapingBenchmark -prof gc
+ *
+ * -prof gc shows the allocation per call next to the time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapingBenchmark {
+  @Param({ "plain", "special", "arabic" })
+  public String text;
+
+  private String input;
+  private StringBuilder sink;
+
+  @Setup
+  public void setUp() {
+    if (text.equals("plain")) {
+      input = "Deutschkurs fuer Anfaengerinnen und Anfaenger im Quartier";
+    } else if (text.equals("special")) {
+      input = "Kurs \"Deutsch & Kultur\" <neu> im Quartier, l'atelier/Gruppe";
+    } else {
+      input = "دورة اللغة "
+          + "الألمانية & "
+          + "الثقافة";
+    }
+    sink = new StringBuilder(1024);
+  }
+
+  @Benchmark
+  public String json() {
+    return Escaping.json(input);
+  }
+
+  @Benchmark
+  public StringBuilder jsonAppend() throws IOException {
+    sink.setLength(0);
+    Escaping.appendJson(sink, input);
+    return sink;
+  }
+
+  @Benchmark
+  public String jsonLegacy() {
+    return legacyToUnicode(input);
+  }
+
+  @Benchmark
+  public String html() {
+    return Escaping.html(input);
+  }
+
+  @Benchmark
+  public String htmlLegacy() {
+    return legacyEscapeText(input);
+  }
+
+  @Benchmark
+  public String htmlAttribute() {
+    return Escaping.htmlAttribute(input);
+  }
+
+  @Benchmark
+  public String htmlAttributeLegacy() {
+    return legacyEscapeAttribute(input);
+  }
+
+  @Benchmark
+  public HtmlBuffer htmlBuffer() {
+    return new HtmlBuffer(256).attribute(input);
+  }
+
+  @Benchmark
+  public String xml() {
+    return Escaping.xml(input);
+  }
+
+  @Benchmark
+  public String xmlLegacy() {
+    return legacyEscapeXml(input);
+  }
+
+  /** Utils.toUnicode() before it used Escaping. */
+  private static String legacyToUnicode(String s) {
+    StringBuilder b = new StringBuilder();
+    List<Character> forbiddenChars = Arrays.asList('"', '\\', '/');
+    for (char c : s.toCharArray()) {
+      if (c == '\n') {
+        b.append("\\n");
+      } else if (c == '\r') {
+        b.append("\\r");
+      } else if ((c > 32 && c < 128 && !forbiddenChars.contains(c)) || c == ' ') {
+        b.append(c);
+      } else {
+        b.append("\\u");
+        String hex = Integer.toHexString(c);
+        for (int i = hex.length(); i < 4; ++i) {
+          b.append('0');
+        }
+        b.append(hex);
+      }
+    }
+    return b.toString();
+  }
+
+  /** NewsletterStyles.ESCAPE_TEXT() before it used Escaping. */
+  private static String legacyEscapeText(String text) {
+    return text
+        .replaceAll("&", "&amp;")
+        .replaceAll("<", "&lt;")
+        .replaceAll(">", "&gt;");
+  }
+
+  /** NewsletterStyles.ESCAPE_ATTRIBUTE() before it used Escaping. */
+  private static String legacyEscapeAttribute(String attr) {
+    return legacyEscapeText(attr)
+        .replaceAll("\"", "&quot;")
+        .replaceAll("\'", "&#39;");
+  }
+
+  /** XMLExportEntry.escapeXML() before it was single-pass. */
+  private static String legacyEscapeXml(String content) {
+    return content.replace("&", "&amp;")
+        .replace("<", "&lt;")
+        .replace(">", "&gt;")
+        .replace("\"", "&quot;");
+  }
+}
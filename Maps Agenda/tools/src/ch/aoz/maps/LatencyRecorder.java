@@ -0,0 +1,149 @@
+package ch.aoz.maps;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latencies of one kind of request, as recorded by LoadTest and
+ * AccessLogReplay. Threadsafe.
+ */
+public class LatencyRecorder {
+  private long[] latencies = new long[1024];
+  private int size = 0;
+  private long errors = 0;
+
+  public synchronized void record(long nanos, boolean ok) {
+    if (!ok) {
+      errors++;
+    }
+    if (size == latencies.length) {
+      latencies = Arrays.copyOf(latencies, size * 2);
+    }
+    latencies[size++] = nanos;
+  }
+
+  public synchronized long errors() {
+    return errors;
+  }
+
+  /** @return the recorded latencies, in nanoseconds, sorted. */
+  public synchronized long[] sorted() {
+    long[] sorted = Arrays.copyOf(latencies, size);
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  /** @return the latency under which percent % of the requests were. */
+  public static long percentile(long[] sorted, int percent) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  /** Prints requests, errors, throughput and latencies of each kind. */
+  public static void printTable(Map<String, LatencyRecorder> recorders,
+      double seconds) {
+    System.out.println(String.format(Locale.ROOT,
+        "%-24s %8s %7s %9s %9s %9s %9s %9s",
+        "request", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+    for (Map.Entry<String, LatencyRecorder> entry : recorders.entrySet()) {
+      LatencyRecorder r = entry.getValue();
+      long[] latencies = r.sorted();
+      System.out.println(String.format(Locale.ROOT,
+          "%-24s %8d %7d %9.1f %9.1f %9.1f %9.1f %9.1f",
+          entry.getKey(), latencies.length, r.errors(),
+          latencies.length / seconds,
+          millis(percentile(latencies, 50)), millis(percentile(latencies, 95)),
+          millis(percentile(latencies, 99)), millis(percentile(latencies, 100))));
+    }
+  }
+
+  /**
+   * Prints the latencies of two runs side by side, e.g. of two builds, with
+   * the relative change of each percentile.
+   */
+  public static void printComparison(Map<String, LatencyRecorder> a,
+      Map<String, LatencyRecorder> b) {
+    System.out.println(String.format(Locale.ROOT,
+        "%-24s %7s %7s  %-23s %-23s %s",
+        "request", "n A", "n B", "p50 ms A/B", "p95 ms A/B", "p99 ms A/B"));
+    Map<String, LatencyRecorder> all = new TreeMap<String, LatencyRecorder>(a);
+    all.putAll(b);
+    for (String key : all.keySet()) {
+      long[] la = a.containsKey(key) ? a.get(key).sorted() : new long[0];
+      long[] lb = b.containsKey(key) ? b.get(key).sorted() : new long[0];
+      StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+          "%-24s %7d %7d ", key, la.length, lb.length));
+      for (int percent : new int[] { 50, 95, 99 }) {
+        double pa = millis(percentile(la, percent));
+        double pb = millis(percentile(lb, percent));
+        line.append(String.format(Locale.ROOT, " %7.1f/%-7.1f %+6.0f%%", pa, pb,
+            pa == 0 ? 0 : (pb - pa) * 100 / pa));
+      }
+      System.out.println(line);
+    }
+  }
+
+  /** Saves the latencies as lines of kind TAB nanos TAB ok. */
+  public static void save(Map<String, LatencyRecorder> recorders, String file)
+      throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+        StandardCharsets.UTF_8);
+    try (PrintWriter out = new PrintWriter(writer)) {
+      for (Map.Entry<String, LatencyRecorder> entry : recorders.entrySet()) {
+        LatencyRecorder r = entry.getValue();
+        synchronized (r) {
+          // Errors aren't attributed to single requests, so they are saved
+          // as the first ones.
+          for (int i = 0; i < r.size; i++) {
+            out.append(entry.getKey()).append('\t')
+                .append(Long.toString(r.latencies[i])).append('\t')
+                .append(i < r.errors ? '0' : '1').append('\n');
+          }
+        }
+      }
+    }
+  }
+
+  /** Loads latencies saved by save(). */
+  public static Map<String, LatencyRecorder> load(String file)
+      throws IOException {
+    Map<String, LatencyRecorder> recorders =
+        new LinkedHashMap<String, LatencyRecorder>();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.split("\t");
+        if (fields.length != 3) {
+          continue;
+        }
+        LatencyRecorder r = recorders.get(fields[0]);
+        if (r == null) {
+          r = new LatencyRecorder();
+          recorders.put(fields[0], r);
+        }
+        r.record(Long.parseLong(fields[1]), fields[2].equals("1"));
+      }
+    }
+    return recorders;
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1e6;
+  }
+}
@@ -0,0 +1,297 @@
+package ch.aoz.maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.appengine.tools.development.DevAppServer;
+import com.google.appengine.tools.development.DevAppServerFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+
+/**
+ * End-to-end load test of the app.
+ *
+ * 1. Generates a SyntheticAgenda into a local datastore file.
+ * 2. Boots the war in an embedded dev server, on that datastore.
+ * 3. Sends requests at a fixed rate (open loop: a slow server doesn't slow
+ *    the load down), in a configurable mix of request types.
+ * 4. Prints the throughput and p50/p95/p99 latencies of each type.
+ *
+ * Latencies are measured from when a request was due, not from when it was
+ * sent, so that requests queued behind slow ones count as slow too.
+ *
+ *   java ch.aoz.maps.LoadTest [--war war] [--port 8890] [--months 3]
+ *       [--events 60] [--languages 16] [--text 300] [--rate 50]
+ *       [--warmup 10] [--duration 60] [--threads 200]
+ *       [--mix events=60,phrases=20,admin_events=10,newsletter=5,xml=5]
+ *       [--url http://localhost:8888]
+ *
+ * With --url, no data is generated and no server is started: the load goes
+ * to the given, already running, server.
+ */
+public class LoadTest {
+  private static final String ADMIN_COOKIE =
+      "dev_appserver_login=loadtest@example.com:true:185804764220139124118";
+
+  private final Map<String, String> options;
+  private final List<Calendar> months = new ArrayList<Calendar>();
+  private final List<String> languages;
+  private final int eventsPerMonth;
+  private String baseUrl;
+
+  private LoadTest(Map<String, String> options) {
+    this.options = options;
+    this.eventsPerMonth = intOption("events");
+    Calendar month = Calendar.getInstance();
+    month.clear();
+    month.set(Calendar.getInstance().get(Calendar.YEAR),
+        Calendar.getInstance().get(Calendar.MONTH), 1);
+    for (int i = 0; i < intOption("months"); i++) {
+      months.add((Calendar) month.clone());
+      month.add(Calendar.MONTH, 1);
+    }
+    this.languages = new SyntheticAgenda(eventsPerMonth, intOption("languages"),
+        intOption("text"), 42).getLanguageCodes();
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<String, String>();
+    options.put("war", "war");
+    options.put("port", "8890");
+    options.put("months", "3");
+    options.put("events", "60");
+    options.put("languages", "16");
+    options.put("text", "300");
+    options.put("rate", "50");
+    options.put("warmup", "10");
+    options.put("duration", "60");
+    options.put("threads", "200");
+    options.put("mix", "events=60,phrases=20,admin_events=10,newsletter=5,xml=5");
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("--")) {
+        throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+      }
+      options.put(args[i].substring(2), args[i + 1]);
+    }
+    new LoadTest(options).run();
+  }
+
+  private void run() throws Exception {
+    DevAppServer server = null;
+    if (options.containsKey("url")) {
+      baseUrl = options.get("url");
+    } else {
+      File datastore = File.createTempFile("loadtest", ".bin");
+      datastore.deleteOnExit();
+      generate(datastore);
+      server = boot(datastore);
+    }
+    try {
+      Map<String, Integer> mix = parseMix(options.get("mix"));
+      System.out.println("Warming up for " + options.get("warmup") + "s...");
+      drive(mix, intOption("warmup"), false);
+      System.out.println("Measuring for " + options.get("duration") + "s at "
+          + options.get("rate") + " requests/s...");
+      Map<String, LatencyRecorder> recorders =
+          drive(mix, intOption("duration"), true);
+      LatencyRecorder.printTable(recorders, intOption("duration"));
+    } finally {
+      if (server != null) {
+        server.shutdown();
+      }
+    }
+  }
+
+  /** Writes the synthetic agenda into a local datastore file. */
+  private void generate(File datastore) {
+    long start = System.currentTimeMillis();
+    LocalServiceTestHelper helper = new LocalServiceTestHelper(
+        new LocalDatastoreServiceTestConfig()
+            .setNoStorage(false)
+            .setBackingStoreLocation(datastore.getAbsolutePath()),
+        new LocalMemcacheServiceTestConfig());
+    helper.setUp();
+    try {
+      SyntheticAgenda agenda = new SyntheticAgenda(eventsPerMonth,
+          intOption("languages"), intOption("text"), 42);
+      agenda.storeLanguages();
+      for (Calendar month : months) {
+        agenda.storeMonth(month);
+      }
+    } finally {
+      // Writes the datastore file.
+      helper.tearDown();
+    }
+    System.out.println("Generated " + months.size() + " months x "
+        + languages.size() + " languages x " + eventsPerMonth + " events in "
+        + (System.currentTimeMillis() - start) + "ms");
+  }
+
+  private DevAppServer boot(File datastore) throws Exception {
+    int port = intOption("port");
+    DevAppServer server = new DevAppServerFactory().createDevAppServer(
+        new File(options.get("war")), "localhost", port);
+    Map<String, String> properties = new HashMap<String, String>();
+    properties.put("datastore.backing_store", datastore.getAbsolutePath());
+    properties.put("datastore.no_storage", "false");
+    server.setServiceProperties(properties);
+    server.start();
+    baseUrl = "http://localhost:" + port;
+    System.out.println("Dev server started on " + baseUrl);
+    return server;
+  }
+
+  /**
+   * Sends requests at the configured rate for a while.
+   *
+   * @param record whether to record the latencies.
+   */
+  private Map<String, LatencyRecorder> drive(Map<String, Integer> mix,
+      int seconds, final boolean record) throws InterruptedException {
+    final Map<String, LatencyRecorder> recorders =
+        new LinkedHashMap<String, LatencyRecorder>();
+    List<String> types = new ArrayList<String>();
+    for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+      recorders.put(entry.getKey(), new LatencyRecorder());
+      for (int i = 0; i < entry.getValue(); i++) {
+        types.add(entry.getKey());
+      }
+    }
+    Random random = new Random();
+    ExecutorService executor = Executors.newFixedThreadPool(intOption("threads"));
+    long intervalNs = TimeUnit.SECONDS.toNanos(1) / intOption("rate");
+    long start = System.nanoTime();
+    long end = start + TimeUnit.SECONDS.toNanos(seconds);
+    for (long due = start; due < end; due += intervalNs) {
+      long wait = due - System.nanoTime();
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+      final String type = types.get(random.nextInt(types.size()));
+      final Request request = newRequest(type, random);
+      final long dueNs = due;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          boolean ok = request.send();
+          if (record) {
+            recorders.get(type).record(System.nanoTime() - dueNs, ok);
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(5, TimeUnit.MINUTES);
+    return recorders;
+  }
+
+  private Request newRequest(String type, Random random) {
+    String lang = languages.get(random.nextInt(languages.size()));
+    Calendar month = months.get(random.nextInt(months.size()));
+    String monthParam = String.format(Locale.ROOT, "%04d-%02d",
+        month.get(Calendar.YEAR), month.get(Calendar.MONTH) + 1);
+    switch (type) {
+    case "events":
+      return new Request(baseUrl + "/maps/data?type=events&lang=" + lang
+          + "&date=" + monthParam + "-" + (1 + random.nextInt(28)), null);
+    case "phrases":
+      return new Request(baseUrl + "/maps/data?type=phrases&lang=" + lang, null);
+    case "admin_events":
+      return new Request(baseUrl + "/admin/data?type=events&lang=" + lang
+          + "&month=" + monthParam, null);
+    case "newsletter":
+      return new Request(baseUrl + "/admin/data?type=newsletter&month="
+          + monthParam, null);
+    case "xml":
+      StringBuilder form = new StringBuilder();
+      form.append("year=").append(month.get(Calendar.YEAR));
+      form.append("&month=").append(month.get(Calendar.MONTH));
+      for (int key = 0; key < eventsPerMonth; key++) {
+        form.append("&XMLExports=").append(key);
+      }
+      form.append("&XMLExportsTopicOfMonth=0");
+      return new Request(baseUrl + "/admin/export_xml.jsp", form.toString());
+    default:
+      throw new IllegalArgumentException("Unknown request type: " + type);
+    }
+  }
+
+  private static Map<String, Integer> parseMix(String mix) {
+    Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+    for (String part : mix.split(",")) {
+      String[] typeAndWeight = part.split("=");
+      weights.put(typeAndWeight[0].trim(), Integer.parseInt(typeAndWeight[1].trim()));
+    }
+    return weights;
+  }
+
+  private int intOption(String name) {
+    return Integer.parseInt(options.get(name));
+  }
+
+  /** A GET, or a form POST if there is a body. */
+  static class Request {
+    private final String url;
+    private final String form;
+
+    Request(String url, String form) {
+      this.url = url;
+      this.form = form;
+    }
+
+    /** @return whether the server answered with a 2xx. */
+    boolean send() {
+      try {
+        HttpURLConnection connection =
+            (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(60000);
+        connection.setRequestProperty("Cookie", ADMIN_COOKIE);
+        if (form != null) {
+          byte[] body = form.getBytes(StandardCharsets.UTF_8);
+          connection.setRequestMethod("POST");
+          connection.setDoOutput(true);
+          connection.setRequestProperty("Content-Type",
+              "application/x-www-form-urlencoded");
+          connection.setFixedLengthStreamingMode(body.length);
+          try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+          }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status >= 400
+            ? connection.getErrorStream() : connection.getInputStream();
+        if (in != null) {
+          // Read the whole response, it's part of the latency.
+          try {
+            byte[] buffer = new byte[8192];
+            while (in.read(buffer) >= 0) {
+            }
+          } finally {
+            in.close();
+          }
+        }
+        return status >= 200 && status < 300;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+  }
+}
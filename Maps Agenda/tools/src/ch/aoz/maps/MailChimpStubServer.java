@@ -0,0 +1,176 @@
+package ch.aoz.maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the campaigns/create.json method of the MailChimp 2.0
+ * API, to try MailChimpClient and campaign creation offline.
+ *
+ * Latency and failures can be injected: each request waits latencyMs, and
+ * fails with a 503 with probability failureRate. Like MailChimp, errors are
+ * answered with a JSON body {status, code, name, error}.
+ *
+ * Embed it with start()/stop(), or run it on its own:
+ *   java ch.aoz.maps.MailChimpStubServer [port] [latencyMs] [failureRate]
+ * and start the dev server with -Dmailchimp.url=http://localhost:port/2.0/
+ */
+public class MailChimpStubServer {
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Random random = new Random();
+  private volatile int latencyMs = 0;
+  private volatile double failureRate = 0;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong created = new AtomicLong();
+
+  /** @param port port to listen on, 0 for any free port. */
+  public MailChimpStubServer(int port) throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    server.createContext("/2.0/campaigns/create.json", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        createCampaign(exchange);
+      }
+    });
+    executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /** @return the URL to give to MailChimpClient. */
+  public String getBaseUrl() {
+    return "http://localhost:" + server.getAddress().getPort() + "/2.0/";
+  }
+
+  public void setLatencyMs(int latencyMs) {
+    this.latencyMs = latencyMs;
+  }
+
+  /** @param failureRate probability, in [0, 1], that a request fails. */
+  public void setFailureRate(double failureRate) {
+    this.failureRate = failureRate;
+  }
+
+  public long getRequests() {
+    return requests.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  public long getCreated() {
+    return created.get();
+  }
+
+  private void createCampaign(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    try {
+      JSONObject request;
+      try (InputStream in = exchange.getRequestBody()) {
+        request = new JSONObject(new JSONTokener(
+            new InputStreamReader(in, StandardCharsets.UTF_8)));
+      } catch (JSONException e) {
+        respond(exchange, 500, error(-100, "ValidationError", e.getMessage()));
+        return;
+      }
+
+      if (latencyMs > 0) {
+        try {
+          Thread.sleep(latencyMs);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      boolean fail;
+      synchronized (random) {
+        fail = random.nextDouble() < failureRate;
+      }
+      if (fail) {
+        failures.incrementAndGet();
+        respond(exchange, 503, error(-50, "ServiceUnavailable", "Injected failure"));
+        return;
+      }
+      if (!request.has("apikey") || !request.has("options")
+          || !request.has("content")) {
+        respond(exchange, 500, error(-100, "ValidationError",
+            "apikey, options and content are required"));
+        return;
+      }
+
+      JSONObject options = request.getJSONObject("options");
+      JSONObject campaign = new JSONObject();
+      campaign.put("id", String.format("stub%06d", created.incrementAndGet()));
+      campaign.put("list_id", options.optString("list_id"));
+      campaign.put("subject", options.optString("subject"));
+      campaign.put("title", options.optString("title", options.optString("subject")));
+      campaign.put("type", request.optString("type", "regular"));
+      campaign.put("status", "save");
+      if (request.has("segment_opts")) {
+        campaign.put("segment_opts", request.get("segment_opts"));
+      }
+      respond(exchange, 200, campaign);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static JSONObject error(int code, String name, String message) {
+    JSONObject error = new JSONObject();
+    error.put("status", "error");
+    error.put("code", code);
+    error.put("name", name);
+    error.put("error", message);
+    return error;
+  }
+
+  private static void respond(HttpExchange exchange, int status,
+      JSONObject body) throws IOException {
+    byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    MailChimpStubServer server = new MailChimpStubServer(
+        args.length > 0 ? Integer.parseInt(args[0]) : 8889);
+    if (args.length > 1) {
+      server.setLatencyMs(Integer.parseInt(args[1]));
+    }
+    if (args.length > 2) {
+      server.setFailureRate(Double.parseDouble(args[2]));
+    }
+    server.start();
+    System.out.println("MailChimp stub listening on " + server.getBaseUrl());
+  }
+}
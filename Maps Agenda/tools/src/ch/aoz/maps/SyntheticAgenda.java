@@ -0,0 +1,208 @@
+package ch.aoz.maps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates an agenda of realistic shape and configurable size: languages,
+ * phrases, and months of events with a description in every language. The
+ * same seed always gives the same agenda.
+ *
+ * Used by the benchmarks, and to fill a dev server (the store methods need the
+ * datastore and memcache, e.g. a LocalServiceTestHelper).
+ */
+public class SyntheticAgenda {
+  /** Code, name, script and whether it's written right to left. */
+  private static final String[][] LANGUAGES = {
+    { "de", "Deutsch", "latin", "N" },
+    { "ar", "Arabic", "arabic", "Y" },
+    { "en", "English", "latin", "N" },
+    { "fr", "Francais", "latin", "N" },
+    { "ru", "Russkij", "cyrillic", "N" },
+    { "ta", "Tamil", "tamil", "N" },
+    { "pe", "Farsi", "arabic", "Y" },
+    { "ma", "Mandarin", "cjk", "N" },
+    { "ti", "Tigrinya", "ethiopic", "N" },
+    { "al", "Shqip", "latin", "N" },
+    { "bo", "Bosanski", "latin", "N" },
+    { "es", "Espanol", "latin", "N" },
+    { "it", "Italiano", "latin", "N" },
+    { "po", "Portugues", "latin", "N" },
+    { "so", "Somali", "latin", "N" },
+    { "tu", "Turkce", "latin", "N" },
+    { "ku", "Kurdi", "arabic", "Y" },
+    { "sr", "Srpski", "cyrillic", "N" },
+    { "ur", "Urdu", "arabic", "Y" },
+    { "vi", "Tieng Viet", "latin", "N" },
+  };
+
+  /** Phrases the newsletter and the public pages need. */
+  public static final String[] PHRASE_KEYS = {
+    "headLeft", "headRight", "headRightLink", "zuriAgenda", "headNL", "footNL",
+  };
+  private static final String[] TAGS = { "kurs", "fest", "beratung", "sport" };
+
+  private final int eventsPerMonth;
+  private final int textLength;
+  private final long seed;
+  private final List<Language> languages;
+
+  /**
+   * @param eventsPerMonth number of events in each generated month.
+   * @param languages number of languages, German included. At most 20.
+   * @param textLength average length of an event description, in chars.
+   * @param seed seed of the generated texts.
+   */
+  public SyntheticAgenda(int eventsPerMonth, int languages, int textLength,
+      long seed) {
+    if (languages < 1 || languages > LANGUAGES.length) {
+      throw new IllegalArgumentException(
+          "languages must be between 1 and " + LANGUAGES.length);
+    }
+    this.eventsPerMonth = eventsPerMonth;
+    this.textLength = textLength;
+    this.seed = seed;
+    this.languages = new ArrayList<Language>();
+    for (int i = 0; i < languages; i++) {
+      String[] l = LANGUAGES[i];
+      this.languages.add(new Language(l[0], l[1], "G-" + l[1],
+          Arrays.asList("So", "Mo", "Di", "Mi", "Do", "Fr", "Sa"),
+          l[3].equals("Y"), true, l[0].equals("ru") || l[0].equals("ar")));
+    }
+  }
+
+  public List<Language> getLanguages() {
+    return languages;
+  }
+
+  /** @return the codes of the languages, German first. */
+  public List<String> getLanguageCodes() {
+    List<String> codes = new ArrayList<String>();
+    for (Language l : languages) {
+      codes.add(l.getCode());
+    }
+    return codes;
+  }
+
+  /** @return the phrases of a language, with all of PHRASE_KEYS and the tags. */
+  public List<Phrase> getPhrases(String lang) {
+    List<Phrase> phrases = new ArrayList<Phrase>();
+    Random random = new Random(seed ^ lang.hashCode());
+    for (String key : PHRASE_KEYS) {
+      phrases.add(new Phrase(key, lang, text(random, lang, 30), "newsletter", false));
+    }
+    for (String tag : TAGS) {
+      phrases.add(new Phrase(tag, lang, text(random, lang, 10), "tags", true));
+    }
+    return phrases;
+  }
+
+  /**
+   * Returns the events of a month, with keys 0 to eventsPerMonth - 1 and their
+   * German description. Each call returns new instances.
+   */
+  public Set<Event> getEvents(Calendar month) {
+    Random random = new Random(seed ^ monthSeed(month));
+    Set<Event> events = new LinkedHashSet<Event>();
+    for (int i = 0; i < eventsPerMonth; i++) {
+      Calendar day = (Calendar) month.clone();
+      day.set(Calendar.DATE, 1 + random.nextInt(day.getActualMaximum(Calendar.DATE)));
+      Set<String> tags = new HashSet<String>();
+      tags.add(TAGS[random.nextInt(TAGS.length)]);
+      Event event = new Event(day, i,
+          random.nextInt(4) == 0 ? "" : "Gemeinschaftszentrum " + text(random, "de", 20),
+          random.nextInt(3) == 0 ? "" : "Tram " + random.nextInt(20) + " bis „"
+              + text(random, "de", 12) + "“",
+          random.nextBoolean() ? "" : "http://www.example.ch/event?id=" + i + "&lang=de",
+          tags);
+      event.setDescription(getDescription("de", month, i));
+      events.add(event);
+    }
+    return events;
+  }
+
+  /** @return the description of an event of getEvents(month) in a language. */
+  public EventDescription getDescription(String lang, Calendar month, long key) {
+    Random random = new Random(seed ^ monthSeed(month) ^ (key * 31 + lang.hashCode()));
+    int length = textLength / 2 + random.nextInt(textLength + 1);
+    return new EventDescription(lang, text(random, lang, 40), text(random, lang, length));
+  }
+
+  /**
+   * Stores the languages and their phrases. Needs the datastore and memcache.
+   */
+  public void storeLanguages() {
+    new Languages(languages).addToStore();
+    for (Language l : languages) {
+      new Phrases(getPhrases(l.getCode())).addToStore();
+    }
+  }
+
+  /**
+   * Stores the events of a month, with their descriptions in all the
+   * languages. Needs the datastore and memcache.
+   */
+  public void storeMonth(Calendar month) {
+    Set<Event> events = getEvents(month);
+    new Events(month, events).addToStore();
+    for (Language l : languages) {
+      for (Event e : events) {
+        e.setDescription(getDescription(l.getCode(), month, e.getKey()));
+      }
+      new EventDescriptions(l.getCode(), month, events).addToStore();
+    }
+  }
+
+  private static long monthSeed(Calendar month) {
+    return month.get(Calendar.YEAR) * 12L + month.get(Calendar.MONTH);
+  }
+
+  /**
+   * Words in the script of the language, with the odd character that needs
+   * escaping somewhere.
+   */
+  private static String text(Random random, String lang, int length) {
+    String script = "latin";
+    for (String[] l : LANGUAGES) {
+      if (l[0].equals(lang)) {
+        script = l[2];
+      }
+    }
+    StringBuilder text = new StringBuilder(length + 16);
+    while (text.length() < length) {
+      if (text.length() > 0) {
+        int r = random.nextInt(40);
+        text.append(r == 0 ? " & " : r == 1 ? ", \"" : r == 2 ? ".\n" : " ");
+      }
+      int wordLength = 2 + random.nextInt(8);
+      for (int i = 0; i < wordLength; i++) {
+        text.append(letter(random, script));
+      }
+    }
+    return text.toString();
+  }
+
+  private static char letter(Random random, String script) {
+    switch (script) {
+    case "arabic":
+      return (char) (0x0627 + random.nextInt(20));
+    case "cyrillic":
+      return (char) (0x0430 + random.nextInt(32));
+    case "tamil":
+      return (char) (0x0b85 + random.nextInt(18));
+    case "cjk":
+      return (char) (0x4e00 + random.nextInt(2000));
+    case "ethiopic":
+      return (char) (0x1200 + random.nextInt(80));
+    default:
+      int r = random.nextInt(30);
+      return r < 26 ? (char) ('a' + r) : "äöüé".charAt(r - 26);
+    }
+  }
+}
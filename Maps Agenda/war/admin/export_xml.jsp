@@ -69,4 +69,5 @@
 	  XMLExport export = new XMLExport(selected_month, eventKeys, eventKeysTopicOfMonth,
 	                                   eventKeysImage, eventKeysLarge);
 
-      out.print(export.getXML());%>
\ No newline at end of file
+      // Written straight to the response, without building the document.
+      export.write(out);%>
\ No newline at end of file
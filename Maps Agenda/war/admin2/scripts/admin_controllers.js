@@ -50,7 +50,7 @@ adminApp.controller('LookNFeelCtrl', function ($scope, $http, background_thumbna
 });
 
 //Controller for the send newsletter page.
-adminApp.controller('NewsletterCtrl', function ($scope, $location, $http, month_str, background_color) {
+adminApp.controller('NewsletterCtrl', function ($scope, $location, $http, $timeout, month_str, background_color) {
   if (month_str == null || month_str == '') {
     $scope.month_str = monthToString(new Date())
     $scope.date = $scope.month_str + "-01";
@@ -86,19 +86,64 @@ adminApp.controller('NewsletterCtrl', function ($scope, $location, $http, month_
     $http({
       method : 'GET',
           url : '/admin/data?type=campaign&month=' + $scope.month_str + '&bgcolor=' + $scope.background_color
-        }).success(function(data) {
+        }).success(function(job) {
+          if (job.error != null) {
+            alert("Campaign creation failed! Reason: " + job.error);
+          } else {
+            $scope.campaign_job = job;
+            $scope.campaign_deadline = Date.now() + CAMPAIGN_TIMEOUT_MS;
+            $timeout($scope.pollCampaign, 2000);
+          }
+          console.log(job)
+        }).error(function(data, status) {
+          alert("Campaign creation failed! HTTP status: " + status);
+        });
+  }
+  // Campaigns are created in the background, see CampaignJob. Poll until the
+  // job is done, or until it had more time than its task (10 minutes).
+  var CAMPAIGN_TIMEOUT_MS = 15 * 60 * 1000;
+  $scope.pollCampaign = function() {
+    $http({
+      method : 'GET',
+          url : '/admin/data?type=campaign_status&id=' + $scope.campaign_job.id
+        }).success(function(job) {
+          if (job.id == null) {
+            $scope.campaign_job = null;
+            alert("Campaign creation failed! Reason: " + job.error);
+            return;
+          }
+          $scope.campaign_job = job;
+          if (job.status == "queued" || job.status == "running") {
+            if (Date.now() > $scope.campaign_deadline) {
+              $scope.campaign_job = null;
+              alert("Campaign creation did not finish in time, its status is " +
+                    job.status + ". Please check the campaigns on " +
+                    "mailchimp.com before creating them again.");
+              return;
+            }
+            $timeout($scope.pollCampaign, 2000);
+            return;
+          }
+          $scope.campaign_job = null;
+          var data = job.result;
           if (data.status == "error") {
             alert(
               "Campaign creation failed! Reason: " + data.name + ": " +
               data.error);
           } else {
             alert(
-              "Campaign \"" + data.title + "\" successfully created! " +
-              "To give you a chance to preview the email, it will not be " +
+              data.campaigns.length + " campaigns \"" + data.title + "\" " +
+              "successfully created, one per language! " +
+              "To give you a chance to preview the emails, they will not be " +
               "sent automatically. Please head over to mailchimp.com, " +
-              "review the campaign, and click send if you are ok with it.");
+              "review the campaigns, and click send if you are ok with them.");
           }
           console.log(data)
+        }).error(function(data, status) {
+          $scope.campaign_job = null;
+          alert("Could not get the status of the campaign creation, HTTP " +
+                "status: " + status + ". Please check the campaigns on " +
+                "mailchimp.com before creating them again.");
         });
   }
   $scope.background_color = background_color;
@@ -3,6 +3,7 @@
 <%@page import="ch.aoz.maps.Event" %>
 <%@page import="ch.aoz.maps.EventDescriptions"%>
 <%@page import="ch.aoz.maps.EventDescription"%>
+<%@page import="ch.aoz.maps.Escaping"%>
 <%@page import="ch.aoz.maps.Events"%>
 <%@page import="ch.aoz.maps.Translator" %>
 <%@page import="ch.aoz.maps.Language" %>
@@ -23,11 +24,7 @@ public static String escapeHTML(String raw) {
   if (raw == null) {
     return null;
   }
-  return raw.replaceAll("&",  "&amp;")
-             .replaceAll("\"", "&quot;")
-             .replaceAll("<",  "&lt;")
-             .replaceAll(">",  "&gt;")
-             .replaceAll("'", "&#39;");
+  return Escaping.htmlAttribute(raw);
 }
 
 public static String formatTranslation(